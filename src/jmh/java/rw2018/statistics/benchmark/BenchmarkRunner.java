@@ -0,0 +1,28 @@
+package rw2018.statistics.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks and writes the results as JSON, so that they can be
+ * compared across revisions. Accepts the same arguments as
+ * <code>org.openjdk.jmh.Main</code>. Unless <code>-rff</code> is given, the
+ * results are written to <code>jmh-result.json</code>.
+ *
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    Options options = new OptionsBuilder().parent(commandLineOptions)
+            .resultFormat(ResultFormatType.JSON)
+            .result(commandLineOptions.getResult().orElse("jmh-result.json")).build();
+    new Runner(options).run();
+  }
+
+}
@@ -0,0 +1,100 @@
+package rw2018.statistics.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.SortedRunIngestion;
+import rw2018.statistics.impl.StatisticsDBBaseImpl;
+import rw2018.statistics.impl.StatisticsDBMetadata.Layout;
+
+/**
+ * Measures the scan of all frequencies of one chunk at the object position of a
+ * {@link StatisticsDBBaseImpl} in the row-major layout, which reads the whole
+ * statistics file, and in the layout with the additional column-major file,
+ * which reads only the requested column.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColumnScanBenchmark {
+
+  @Param({ "ROW_MAJOR", "ROW_AND_COLUMN_MAJOR" })
+  public Layout layout;
+
+  @Param({ "16" })
+  public int numberOfChunks;
+
+  @Param({ "250000" })
+  public int statementsPerChunk;
+
+  @Param({ "1000000" })
+  public long cardinality;
+
+  @Param({ "1000" })
+  public long propertyCardinality;
+
+  @Param({ "1.0" })
+  public double zipfExponent;
+
+  private File chunkDir;
+
+  private File statisticsDir;
+
+  private StatisticsDB statisticsDB;
+
+  private int nextChunk;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    chunkDir = Files.createTempDirectory("chunks").toFile();
+    File[] chunks = SyntheticChunks.generate(chunkDir, numberOfChunks, statementsPerChunk,
+            cardinality, propertyCardinality, zipfExponent, 42);
+    statisticsDir = Files.createTempDirectory("statistics").toFile();
+    new SortedRunIngestion(statisticsDir, SortedRunIngestion.DEFAULT_MEMORY_BUDGET)
+            .collectStatistics(chunks);
+    // reopening and closing writes the column file of the requested layout
+    try (StatisticsDB statisticsDB = new StatisticsDBBaseImpl(layout);) {
+      statisticsDB.setUp(statisticsDir, numberOfChunks);
+    }
+    statisticsDB = new StatisticsDBBaseImpl(layout);
+    statisticsDB.setUp(statisticsDir, numberOfChunks);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    statisticsDB.close();
+    SyntheticChunks.delete(statisticsDir);
+    SyntheticChunks.delete(chunkDir);
+  }
+
+  @Benchmark
+  public long forEachFrequency() {
+    long[] sum = new long[1];
+    statisticsDB.forEachFrequency(nextChunk++ % numberOfChunks, TriplePosition.OBJECT,
+            (resourceId, frequency) -> sum[0] += frequency);
+    return sum[0];
+  }
+
+}
@@ -0,0 +1,173 @@
+package rw2018.statistics.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBBaseImpl;
+import rw2018.statistics.impl.StatisticsDBConcurrentImpl;
+
+/**
+ * Checks that {@link StatisticsDBConcurrentImpl} does not lose increments
+ * under contention. Each of <code>numberOfThreads</code> threads performs
+ * <code>incrementsPerThread</code> increments of pseudo-random cells. Every
+ * second thread passes its increments in batches to
+ * {@link StatisticsDB#incrementFrequencies(long[], int, int, int, TriplePosition)}.
+ * All threads start at the same time, so that they also race for the
+ * allocation of new pages of the table. Afterwards, the sequences of all
+ * threads are replayed sequentially and every cell, every total frequency
+ * and every chunk size has to match exactly. The same is checked for the
+ * statistics file written during {@link StatisticsDB#close()}, which is
+ * reopened with {@link StatisticsDBBaseImpl}. A mismatch throws an
+ * {@link IllegalStateException}.
+ *
+ * Usage: <code>ConcurrentStressCheck [numberOfThreads [incrementsPerThread
+ * [numberOfResources [numberOfChunks]]]]</code>
+ *
+ */
+public class ConcurrentStressCheck {
+
+  private static final int BATCH_SIZE = 1 << 10;
+
+  private static final TriplePosition[] POSITIONS = StatisticsDB.DEFAULT_TRIPLE_POSITIONS;
+
+  public static void main(String[] args) throws Exception {
+    int numberOfThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors() * 2;
+    int incrementsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    int numberOfResources = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+    int numberOfChunks = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+    int sizeOfRow = numberOfChunks * POSITIONS.length;
+    long[] expected = new long[numberOfResources * sizeOfRow];
+    for (int threadI = 0; threadI < numberOfThreads; threadI++) {
+      SplittableRandom random = new SplittableRandom(threadI);
+      for (int i = 0; i < incrementsPerThread; i++) {
+        long resourceId = 1 + random.nextInt(numberOfResources);
+        int posI = random.nextInt(POSITIONS.length);
+        int chunkI = random.nextInt(numberOfChunks);
+        expected[(int) (((resourceId - 1) * sizeOfRow) + (posI * numberOfChunks) + chunkI)]++;
+      }
+    }
+
+    File statisticsDir = Files.createTempDirectory("concurrent").toFile();
+    try {
+      long start = System.nanoTime();
+      StatisticsDB statisticsDB = new StatisticsDBConcurrentImpl();
+      try {
+        statisticsDB.setUp(statisticsDir, numberOfChunks);
+        ingest(statisticsDB, numberOfThreads, incrementsPerThread, numberOfResources,
+                numberOfChunks);
+        long duration = System.nanoTime() - start;
+        check(statisticsDB, expected, numberOfResources);
+        System.out.printf("%d threads x %d increments in %d ms: all frequencies match%n",
+                numberOfThreads, incrementsPerThread, TimeUnit.NANOSECONDS.toMillis(duration));
+      } finally {
+        statisticsDB.close();
+      }
+      try (StatisticsDB persistedDB = new StatisticsDBBaseImpl();) {
+        persistedDB.setUp(statisticsDir, numberOfChunks);
+        check(persistedDB, expected, numberOfResources);
+        System.out.println("the written statistics file matches");
+      }
+    } finally {
+      SyntheticChunks.delete(statisticsDir);
+    }
+  }
+
+  private static void ingest(StatisticsDB statisticsDB, int numberOfThreads,
+          int incrementsPerThread, int numberOfResources, int numberOfChunks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+      CountDownLatch startSignal = new CountDownLatch(1);
+      @SuppressWarnings("unchecked")
+      Future<Void>[] results = new Future[numberOfThreads];
+      for (int threadI = 0; threadI < numberOfThreads; threadI++) {
+        int seed = threadI;
+        boolean isBatched = (threadI % 2) == 1;
+        results[threadI] = executor.submit(() -> {
+          startSignal.await();
+          SplittableRandom random = new SplittableRandom(seed);
+          // batches only contain increments of the same chunk and position
+          long[][] batches = new long[POSITIONS.length * numberOfChunks][BATCH_SIZE];
+          int[] sizes = new int[batches.length];
+          for (int i = 0; i < incrementsPerThread; i++) {
+            long resourceId = 1 + random.nextInt(numberOfResources);
+            int posI = random.nextInt(POSITIONS.length);
+            int chunkI = random.nextInt(numberOfChunks);
+            if (!isBatched) {
+              statisticsDB.incrementFrequency(resourceId, chunkI, POSITIONS[posI]);
+              continue;
+            }
+            int batchI = (posI * numberOfChunks) + chunkI;
+            batches[batchI][sizes[batchI]++] = resourceId;
+            if (sizes[batchI] == BATCH_SIZE) {
+              statisticsDB.incrementFrequencies(batches[batchI], 0, BATCH_SIZE, chunkI,
+                      POSITIONS[posI]);
+              sizes[batchI] = 0;
+            }
+          }
+          for (int batchI = 0; batchI < batches.length; batchI++) {
+            statisticsDB.incrementFrequencies(batches[batchI], 0, sizes[batchI],
+                    batchI % numberOfChunks, POSITIONS[batchI / numberOfChunks]);
+          }
+          return null;
+        });
+      }
+      startSignal.countDown();
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void check(StatisticsDB statisticsDB, long[] expected, int numberOfResources) {
+    int numberOfChunks = statisticsDB.getNumberOfChunks();
+    int sizeOfRow = numberOfChunks * POSITIONS.length;
+    long[] chunkSizes = new long[sizeOfRow];
+    for (long resourceId = 1; resourceId <= numberOfResources; resourceId++) {
+      long[] frequencies = statisticsDB.getFrequencies(resourceId);
+      int firstCell = (int) ((resourceId - 1) * sizeOfRow);
+      for (int posI = 0; posI < POSITIONS.length; posI++) {
+        long totalFrequency = 0;
+        for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+          int column = (posI * numberOfChunks) + chunkI;
+          long expectedFrequency = expected[firstCell + column];
+          long frequency = frequencies == null ? 0 : frequencies[column];
+          if (frequency != expectedFrequency) {
+            throw new IllegalStateException("Resource " + resourceId + " occurs " + frequency
+                    + " times instead of " + expectedFrequency + " times at "
+                    + POSITIONS[posI] + " in chunk " + chunkI + ".");
+          }
+          totalFrequency += expectedFrequency;
+          chunkSizes[column] += expectedFrequency;
+        }
+        long storedTotalFrequency = statisticsDB.getTotalFrequency(resourceId, POSITIONS[posI]);
+        if ((frequencies != null) && (storedTotalFrequency != totalFrequency)) {
+          throw new IllegalStateException("The total frequency of resource " + resourceId
+                  + " at " + POSITIONS[posI] + " is " + storedTotalFrequency + " instead of "
+                  + totalFrequency + ".");
+        }
+      }
+    }
+    for (int column = 0; column < sizeOfRow; column++) {
+      TriplePosition position = POSITIONS[column / numberOfChunks];
+      long chunkSize = statisticsDB.getChunkSize(column % numberOfChunks, position);
+      if (chunkSize != chunkSizes[column]) {
+        throw new IllegalStateException("The chunk " + (column % numberOfChunks) + " at "
+                + position + " has the size " + chunkSize + " instead of " + chunkSizes[column]
+                + ".");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+package rw2018.statistics.benchmark;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBBaseImpl;
+import rw2018.statistics.impl.StatisticsDBCountMinImpl;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
+
+/**
+ * Reports the accuracy of {@link StatisticsDBCountMinImpl} for several widths
+ * and depths compared to the exact frequencies of {@link StatisticsDBBaseImpl}
+ * on synthetic chunks. For each configuration, it prints the memory of the
+ * sketches relative to the size of the exact statistics file, the mean and
+ * maximal overestimation of all frequencies and the fraction of estimates
+ * that lie within {@link StatisticsDBCountMinImpl#getErrorBound(int,
+ * TriplePosition)}. The ingestion and lookup times of the approximate database
+ * are measured by {@link StatisticsDBBenchmark} with
+ * <code>-p database=countmin</code>.
+ *
+ * Usage: <code>CountMinAccuracy [numberOfChunks [statementsPerChunk
+ * [cardinality [zipfExponent]]]]</code>
+ *
+ */
+public class CountMinAccuracy {
+
+  private static final int[] WIDTHS = { 1 << 10, 1 << 12, 1 << 14, 1 << 16 };
+
+  private static final int[] DEPTHS = { 2, 4, 6 };
+
+  private static final int BATCH_SIZE = 1 << 12;
+
+  public static void main(String[] args) throws IOException {
+    int numberOfChunks = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int statementsPerChunk = args.length > 1 ? Integer.parseInt(args[1]) : 250000;
+    long cardinality = args.length > 2 ? Long.parseLong(args[2]) : 100000;
+    double zipfExponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+
+    File chunkDir = Files.createTempDirectory("chunks").toFile();
+    File exactDir = Files.createTempDirectory("exact").toFile();
+    try {
+      File[] chunks = SyntheticChunks.generate(chunkDir, numberOfChunks, statementsPerChunk,
+              cardinality, 1000, zipfExponent, 42);
+      long[][][] decodedChunks = decode(chunks, statementsPerChunk);
+      try (StatisticsDB exactDB = new StatisticsDBBaseImpl();) {
+        exactDB.setUp(exactDir, numberOfChunks);
+        ingest(exactDB, decodedChunks);
+        long exactBytes = new File(exactDir, Encoding.ROWS.getFileName()).length();
+        System.out.printf("%8s %6s %14s %10s %12s %10s %12s%n", "width", "depth", "bytes",
+                "relative", "meanError", "maxError", "withinBound");
+        for (int width : WIDTHS) {
+          for (int depth : DEPTHS) {
+            StatisticsDBCountMinImpl approximateDB = new StatisticsDBCountMinImpl(width, depth);
+            File approximateDir = Files.createTempDirectory("countmin").toFile();
+            try {
+              approximateDB.setUp(approximateDir, numberOfChunks);
+              ingest(approximateDB, decodedChunks);
+              report(exactDB, approximateDB, exactBytes);
+            } finally {
+              approximateDB.close();
+              SyntheticChunks.delete(approximateDir);
+            }
+          }
+        }
+      }
+    } finally {
+      SyntheticChunks.delete(exactDir);
+      SyntheticChunks.delete(chunkDir);
+    }
+  }
+
+  private static long[][][] decode(File[] chunks, int statementsPerChunk) throws IOException {
+    long[][][] decodedChunks = new long[chunks.length][3][statementsPerChunk];
+    EncodedStatement statement = new EncodedStatement();
+    for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
+      try (EncodedStatementInput input = EncodedStatementInput.open(chunks[chunkI]);) {
+        for (int i = 0; i < statementsPerChunk; i++) {
+          input.read(statement);
+          decodedChunks[chunkI][0][i] = statement.getSubject();
+          decodedChunks[chunkI][1][i] = statement.getProperty();
+          decodedChunks[chunkI][2][i] = statement.getObject();
+        }
+      } catch (EOFException e) {
+        throw new IllegalStateException("The chunk " + chunks[chunkI] + " is incomplete.", e);
+      }
+    }
+    return decodedChunks;
+  }
+
+  private static void ingest(StatisticsDB statisticsDB, long[][][] decodedChunks) {
+    TriplePosition[] positions = StatisticsDB.DEFAULT_TRIPLE_POSITIONS;
+    for (int chunkI = 0; chunkI < decodedChunks.length; chunkI++) {
+      int statementsPerChunk = decodedChunks[chunkI][0].length;
+      for (int start = 0; start < statementsPerChunk; start += BATCH_SIZE) {
+        int length = Math.min(BATCH_SIZE, statementsPerChunk - start);
+        for (int posI = 0; posI < positions.length; posI++) {
+          statisticsDB.incrementFrequencies(decodedChunks[chunkI][posI], start, length, chunkI,
+                  positions[posI]);
+        }
+      }
+    }
+  }
+
+  private static void report(StatisticsDB exactDB, StatisticsDBCountMinImpl approximateDB,
+          long exactBytes) {
+    int numberOfChunks = exactDB.getNumberOfChunks();
+    TriplePosition[] positions = exactDB.getTriplePositions();
+    long[] errorBounds = new long[numberOfChunks * positions.length];
+    for (int posI = 0; posI < positions.length; posI++) {
+      for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+        errorBounds[(posI * numberOfChunks) + chunkI] = approximateDB.getErrorBound(chunkI,
+                positions[posI]);
+      }
+    }
+    long[] statistics = new long[4];
+    exactDB.forEachRow((resourceId, frequencies) -> {
+      long[] estimates = approximateDB.getFrequencies(resourceId);
+      for (int i = 0; i < frequencies.length; i++) {
+        long error = estimates[i] - frequencies[i];
+        if (error < 0) {
+          throw new IllegalStateException("The estimate " + estimates[i] + " of resource "
+                  + resourceId + " is smaller than the frequency " + frequencies[i] + ".");
+        }
+        statistics[0]++;
+        statistics[1] += error;
+        statistics[2] = Math.max(statistics[2], error);
+        if (error <= errorBounds[i]) {
+          statistics[3]++;
+        }
+      }
+    });
+    long bytes = approximateDB.getMemoryUsage();
+    System.out.printf("%8d %6d %14d %10.4f %12.3f %10d %12.5f%n", approximateDB.getWidth(),
+            approximateDB.getDepth(), bytes, (double) bytes / exactBytes,
+            (double) statistics[1] / statistics[0], statistics[2],
+            (double) statistics[3] / statistics[0]);
+  }
+
+}
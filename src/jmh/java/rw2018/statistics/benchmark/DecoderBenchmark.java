@@ -0,0 +1,117 @@
+package rw2018.statistics.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rw2018.statistics.io.EncodedFileInputStream;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodingFileFormat;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Compares the block-buffered v-byte decoder of {@link EncodedFileInputStream}
+ * with the former decoder that called {@link DataInputStream#readByte()} for
+ * each 7-bit block. Both decode the same synthetic {@link EncodingFileFormat#EEE}
+ * chunk.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecoderBenchmark {
+
+  @Param({ "1000000" })
+  public int numberOfStatements;
+
+  @Param({ "1000000" })
+  public long maxResourceId;
+
+  private File directory;
+
+  private File chunk;
+
+  @Setup(Level.Trial)
+  public void createChunk() throws IOException {
+    directory = Files.createTempDirectory("decoder").toFile();
+    chunk = SyntheticChunks.generate(directory, 1, numberOfStatements, maxResourceId, 100, 0,
+            42)[0];
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteChunk() {
+    SyntheticChunks.delete(directory);
+  }
+
+  @Benchmark
+  public long blockBufferedDecoder() throws IOException {
+    long sum = 0;
+    EncodedStatement statement = new EncodedStatement();
+    try (EncodedFileInputStream input = new EncodedFileInputStream(EncodingFileFormat.EEE,
+            chunk);) {
+      while (true) {
+        try {
+          input.read(statement);
+        } catch (EOFException e) {
+          break;
+        }
+        sum += statement.getSubject() + statement.getProperty() + statement.getObject();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long dataInputStreamDecoder() throws IOException {
+    long sum = 0;
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(chunk))));) {
+      while (true) {
+        try {
+          sum += readEncodedLong(input) + readEncodedLong(input) + readEncodedLong(input);
+        } catch (EOFException e) {
+          break;
+        }
+        byte[] containment = new byte[input.readShort() & 0xff_ff];
+        input.readFully(containment);
+      }
+    }
+    return sum;
+  }
+
+  private static long readEncodedLong(DataInputStream input) throws IOException {
+    long result = 0;
+    byte currentBlock;
+    do {
+      currentBlock = input.readByte();
+      result = result << 7;
+      long value = currentBlock & 0b0111_1111;
+      result = result | value;
+    } while (currentBlock >= 0);
+    return NumberConversion.bytes2long(NumberConversion.long2bytes(result));
+  }
+
+}
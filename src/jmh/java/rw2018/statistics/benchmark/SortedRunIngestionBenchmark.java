@@ -0,0 +1,152 @@
+package rw2018.statistics.benchmark;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.SortedRunIngestion;
+import rw2018.statistics.impl.StatisticsDBBaseImpl;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
+
+/**
+ * Compares the random access ingestion of {@link StatisticsDBBaseImpl} with
+ * the external sorting of {@link SortedRunIngestion} on synthetic chunks whose
+ * table is <code>tableToMemoryRatio</code> times larger than the memory budget
+ * of the external sort. Both benchmarks decode the chunks and write the same
+ * statistics file. The random access ingestion only reaches disk speed if the
+ * table also exceeds the page cache, e.g., if the benchmark runs in a memory
+ * limited container.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = 1)
+@Measurement(iterations = 3, batchSize = 1)
+@Fork(1)
+public class SortedRunIngestionBenchmark {
+
+  private static final int BATCH_SIZE = 1 << 12;
+
+  @Param({ "4" })
+  public int numberOfChunks;
+
+  @Param({ "1000000" })
+  public int statementsPerChunk;
+
+  @Param({ "2000000" })
+  public long cardinality;
+
+  @Param({ "1000" })
+  public long propertyCardinality;
+
+  @Param({ "1.0" })
+  public double zipfExponent;
+
+  @Param({ "10" })
+  public int tableToMemoryRatio;
+
+  private File chunkDir;
+
+  private File[] chunks;
+
+  private long memoryBudget;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    chunkDir = Files.createTempDirectory("chunks").toFile();
+    chunks = SyntheticChunks.generate(chunkDir, numberOfChunks, statementsPerChunk, cardinality,
+            propertyCardinality, zipfExponent, 42);
+    long tableSize = cardinality * numberOfChunks
+            * StatisticsDB.DEFAULT_TRIPLE_POSITIONS.length * Long.BYTES;
+    memoryBudget = Math.max(1 << 17, tableSize / tableToMemoryRatio);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticChunks.delete(chunkDir);
+  }
+
+  @Benchmark
+  public void randomAccess(IngestDirectory ingestDirectory) throws IOException {
+    long[][] batch = new long[3][BATCH_SIZE];
+    try (StatisticsDB statisticsDB = new StatisticsDBBaseImpl();) {
+      statisticsDB.setUp(ingestDirectory.directory, numberOfChunks);
+      EncodedStatement statement = new EncodedStatement();
+      for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+        try (EncodedStatementInput input = EncodedStatementInput.open(chunks[chunkI]);) {
+          int size = 0;
+          while (true) {
+            try {
+              input.read(statement);
+            } catch (EOFException e) {
+              // the chunk is read completely
+              break;
+            }
+            batch[0][size] = statement.getSubject();
+            batch[1][size] = statement.getProperty();
+            batch[2][size] = statement.getObject();
+            size++;
+            if (size == BATCH_SIZE) {
+              addBatch(statisticsDB, batch, size, chunkI);
+              size = 0;
+            }
+          }
+          addBatch(statisticsDB, batch, size, chunkI);
+        }
+      }
+    }
+  }
+
+  private void addBatch(StatisticsDB statisticsDB, long[][] batch, int size, int chunkNumber) {
+    TriplePosition[] positions = StatisticsDB.DEFAULT_TRIPLE_POSITIONS;
+    for (int posI = 0; posI < positions.length; posI++) {
+      statisticsDB.incrementFrequencies(batch[posI], 0, size, chunkNumber, positions[posI]);
+    }
+  }
+
+  @Benchmark
+  public void sortedRuns(IngestDirectory ingestDirectory) {
+    new SortedRunIngestion(ingestDirectory.directory, memoryBudget).collectStatistics(chunks);
+  }
+
+  /**
+   * Provides an empty directory for each invocation.
+   */
+  @State(Scope.Thread)
+  public static class IngestDirectory {
+
+    private File directory;
+
+    @Setup(Level.Invocation)
+    public void create() throws IOException {
+      directory = Files.createTempDirectory("ingest").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void delete() {
+      SyntheticChunks.delete(directory);
+    }
+
+  }
+
+}
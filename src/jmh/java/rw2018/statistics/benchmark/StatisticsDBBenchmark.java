@@ -0,0 +1,207 @@
+package rw2018.statistics.benchmark;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rw2018.statistics.Main;
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
+
+/**
+ * Compares the {@link StatisticsDB} implementations on synthetic chunks
+ * generated by {@link SyntheticChunks}. The chunks are decoded once during the
+ * set up so that the ingest benchmark measures the {@link StatisticsDB} and not
+ * the decoder.
+ *
+ * <code>impl</code> is not among the default databases, since it only stores
+ * resource ids below <code>1 &lt;&lt; 7</code> and would skip almost all
+ * increments of the synthetic chunks. It can still be passed as
+ * <code>database</code> parameter together with a <code>cardinality</code> of
+ * at most 127. <code>countmin</code> only estimates the frequencies.
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatisticsDBBenchmark {
+
+  private static final int BATCH_SIZE = 1 << 12;
+
+  private static final int NUMBER_OF_LOOKUPS = 1 << 16;
+
+  @Param({ "base", "memory", "mapped", "concurrent", "sharded", "writebehind", "sparse",
+      "compact", "countmin" })
+  public String database;
+
+  @Param({ "4" })
+  public int numberOfChunks;
+
+  @Param({ "250000" })
+  public int statementsPerChunk;
+
+  @Param({ "100000" })
+  public long cardinality;
+
+  @Param({ "1000" })
+  public long propertyCardinality;
+
+  @Param({ "1.0" })
+  public double zipfExponent;
+
+  private File chunkDir;
+
+  private long[][][] decodedChunks;
+
+  /**
+   * The database that is populated with all chunks and queried by the lookup
+   * benchmarks.
+   */
+  private StatisticsDB populatedDB;
+
+  private File populatedDir;
+
+  private long[] lookupIds;
+
+  private int[] lookupChunks;
+
+  private TriplePosition[] lookupPositions;
+
+  private int nextLookup;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    chunkDir = Files.createTempDirectory("chunks").toFile();
+    File[] chunks = SyntheticChunks.generate(chunkDir, numberOfChunks, statementsPerChunk,
+            cardinality, propertyCardinality, zipfExponent, 42);
+    decodedChunks = new long[numberOfChunks][3][statementsPerChunk];
+    EncodedStatement statement = new EncodedStatement();
+    for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+      try (EncodedStatementInput input = EncodedStatementInput.open(chunks[chunkI]);) {
+        for (int i = 0; i < statementsPerChunk; i++) {
+          input.read(statement);
+          decodedChunks[chunkI][0][i] = statement.getSubject();
+          decodedChunks[chunkI][1][i] = statement.getProperty();
+          decodedChunks[chunkI][2][i] = statement.getObject();
+        }
+      } catch (EOFException e) {
+        throw new IllegalStateException("The chunk " + chunks[chunkI] + " is incomplete.", e);
+      }
+    }
+
+    populatedDir = Files.createTempDirectory("populated").toFile();
+    populatedDB = Main.createStatisticsDB(database);
+    populatedDB.setUp(populatedDir, numberOfChunks);
+    ingest(populatedDB);
+
+    Random random = new Random(7);
+    lookupIds = new long[NUMBER_OF_LOOKUPS];
+    lookupChunks = new int[NUMBER_OF_LOOKUPS];
+    lookupPositions = new TriplePosition[NUMBER_OF_LOOKUPS];
+    for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+      lookupIds[i] = 1 + (long) (random.nextDouble() * cardinality);
+      lookupChunks[i] = random.nextInt(numberOfChunks);
+      lookupPositions[i] = TriplePosition.values()[random.nextInt(3)];
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    populatedDB.close();
+    SyntheticChunks.delete(populatedDir);
+    SyntheticChunks.delete(chunkDir);
+  }
+
+  private void ingest(StatisticsDB statisticsDB) {
+    TriplePosition[] positions = StatisticsDB.DEFAULT_TRIPLE_POSITIONS;
+    for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+      for (int start = 0; start < statementsPerChunk; start += BATCH_SIZE) {
+        int length = Math.min(BATCH_SIZE, statementsPerChunk - start);
+        for (int posI = 0; posI < positions.length; posI++) {
+          statisticsDB.incrementFrequencies(decodedChunks[chunkI][posI], start, length, chunkI,
+                  positions[posI]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets up an empty database, adds all chunks and closes it, which includes
+   * persisting the statistics.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, batchSize = 1)
+  @Measurement(iterations = 5, batchSize = 1)
+  public void ingest(IngestDirectory ingestDirectory) {
+    try (StatisticsDB statisticsDB = Main.createStatisticsDB(database);) {
+      statisticsDB.setUp(ingestDirectory.directory, numberOfChunks);
+      ingest(statisticsDB);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long getFrequency() {
+    int i = nextLookup++ & (NUMBER_OF_LOOKUPS - 1);
+    return populatedDB.getFrequency(lookupIds[i], lookupChunks[i], lookupPositions[i]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long[] getFrequencies() {
+    return populatedDB.getFrequencies(lookupIds[nextLookup++ & (NUMBER_OF_LOOKUPS - 1)]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public String prettyPrint() {
+    return populatedDB.prettyPrint();
+  }
+
+  /**
+   * Provides an empty directory for each invocation of
+   * {@link StatisticsDBBenchmark#ingest(IngestDirectory)}.
+   */
+  @State(Scope.Thread)
+  public static class IngestDirectory {
+
+    private File directory;
+
+    @Setup(Level.Invocation)
+    public void create() throws IOException {
+      directory = Files.createTempDirectory("ingest").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void delete() {
+      SyntheticChunks.delete(directory);
+    }
+
+  }
+
+}
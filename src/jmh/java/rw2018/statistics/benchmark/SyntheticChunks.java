@@ -0,0 +1,150 @@
+package rw2018.statistics.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import rw2018.statistics.io.EncodedFileOutputStream;
+import rw2018.statistics.io.EncodingFileFormat;
+import rw2018.statistics.io.Statement;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Generates synthetic chunks of format {@link EncodingFileFormat#EEE} with
+ * {@link EncodedFileOutputStream}. Subject and object ids are drawn from
+ * <code>1</code> to <code>cardinality</code>, property ids from
+ * <code>1</code> to <code>propertyCardinality</code>. The ids follow a Zipf
+ * distribution, i.e., id <code>k</code> is drawn with a probability
+ * proportional to <code>1 / k^zipfExponent</code>. An exponent of 0 results in
+ * uniformly distributed ids.
+ *
+ */
+public class SyntheticChunks {
+
+  public static File[] generate(File directory, int numberOfChunks, int statementsPerChunk,
+          long cardinality, long propertyCardinality, double zipfExponent, long seed)
+          throws IOException {
+    if (!directory.exists()) {
+      directory.mkdirs();
+    }
+    Random random = new Random(seed);
+    ZipfSampler resources = new ZipfSampler(cardinality, zipfExponent);
+    ZipfSampler properties = new ZipfSampler(propertyCardinality, zipfExponent);
+    byte[] containment = new byte[] { 1 };
+    File[] chunks = new File[numberOfChunks];
+    for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+      chunks[chunkI] = new File(directory, String.format("chunk%05d.gz", chunkI));
+      try (EncodedFileOutputStream output = new EncodedFileOutputStream(chunks[chunkI]);) {
+        for (int i = 0; i < statementsPerChunk; i++) {
+          output.writeStatement(Statement.getStatement(EncodingFileFormat.EEE,
+                  NumberConversion.long2bytes(resources.sample(random)),
+                  NumberConversion.long2bytes(properties.sample(random)),
+                  NumberConversion.long2bytes(resources.sample(random)), containment));
+        }
+      }
+    }
+    return chunks;
+  }
+
+  public static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        SyntheticChunks.delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Draws Zipf distributed values from <code>1</code> to
+   * <code>numberOfElements</code> in constant time and memory by rejection
+   * inversion (W. Hörmann and G. Derflinger, "Rejection-inversion to generate
+   * variates from monotone discrete distributions", 1996).
+   */
+  public static class ZipfSampler {
+
+    private final long numberOfElements;
+
+    private final double exponent;
+
+    private final double hIntegralX1;
+
+    private final double hIntegralNumberOfElements;
+
+    private final double s;
+
+    public ZipfSampler(long numberOfElements, double exponent) {
+      if ((numberOfElements < 1) || (exponent < 0)) {
+        throw new IllegalArgumentException(
+                "The number of elements must be > 0 and the exponent must be >= 0.");
+      }
+      this.numberOfElements = numberOfElements;
+      this.exponent = exponent;
+      hIntegralX1 = hIntegral(1.5) - 1;
+      hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+      s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public long sample(Random random) {
+      if (exponent == 0) {
+        return 1 + (long) (random.nextDouble() * numberOfElements);
+      }
+      while (true) {
+        double u = hIntegralNumberOfElements
+                + (random.nextDouble() * (hIntegralX1 - hIntegralNumberOfElements));
+        double x = hIntegralInverse(u);
+        long k = (long) (x + 0.5);
+        if (k < 1) {
+          k = 1;
+        } else if (k > numberOfElements) {
+          k = numberOfElements;
+        }
+        if (((k - x) <= s) || (u >= (hIntegral(k + 0.5) - h(k)))) {
+          return k;
+        }
+      }
+    }
+
+    private double hIntegral(double x) {
+      double logX = Math.log(x);
+      return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+      return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+      double t = x * (1 - exponent);
+      if (t < -1) {
+        t = -1;
+      }
+      return Math.exp(helper1(t) * x);
+    }
+
+    /**
+     * @return <code>log(1 + x) / x</code>
+     */
+    private static double helper1(double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.log1p(x) / x;
+      } else {
+        return 1 - (x * (0.5 - (x * ((1.0 / 3) - (0.25 * x)))));
+      }
+    }
+
+    /**
+     * @return <code>(exp(x) - 1) / x</code>
+     */
+    private static double helper2(double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.expm1(x) / x;
+      } else {
+        return 1 + (x * 0.5 * (1 + (x * (1.0 / 3) * (1 + (0.25 * x)))));
+      }
+    }
+
+  }
+
+}
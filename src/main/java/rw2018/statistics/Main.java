@@ -8,15 +8,31 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import rw2018.statistics.impl.SortedRunIngestion;
 import rw2018.statistics.impl.StatisticsDBBaseImpl;
+import rw2018.statistics.impl.StatisticsDBCompactImpl;
+import rw2018.statistics.impl.StatisticsDBConcurrentImpl;
+import rw2018.statistics.impl.StatisticsDBCountMinImpl;
 import rw2018.statistics.impl.StatisticsDBImpl;
-import rw2018.statistics.io.EncodedFileInputStream;
-import rw2018.statistics.io.EncodingFileFormat;
-import rw2018.statistics.io.Statement;
+import rw2018.statistics.impl.StatisticsDBInMemoryImpl;
+import rw2018.statistics.impl.StatisticsDBMappedImpl;
+import rw2018.statistics.impl.StatisticsDBMetadata.Layout;
+import rw2018.statistics.impl.StatisticsDBShardedImpl;
+import rw2018.statistics.impl.StatisticsDBSparseImpl;
+import rw2018.statistics.impl.StatisticsDBWriteBehindImpl;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
 
 /**
  * This class demonstrates how the {@link StatisticsDB} is used.
@@ -26,7 +42,80 @@ import rw2018.statistics.io.Statement;
  */
 public class Main {
 
-  private static void collectStatistics(File statisticsDir, File[] chunks) {
+  private static final int DEFAULT_BATCH_SIZE = 1 << 12;
+
+  private static final int DEFAULT_QUEUE_SIZE = 16;
+
+  /**
+   * @param type
+   *          <code>String</code> the name of the implementation as accepted by
+   *          the <code>-d</code> option
+   * @return {@link StatisticsDB} a new instance that is not set up yet
+   */
+  public static StatisticsDB createStatisticsDB(String type) {
+    return Main.createStatisticsDB(type, StatisticsDBShardedImpl.DEFAULT_NUMBER_OF_SHARDS);
+  }
+
+  /**
+   * @param type
+   *          <code>String</code> the name of the implementation as accepted by
+   *          the <code>-d</code> option
+   * @param numberOfShards
+   *          <code>int</code> the number of shards per triple position of the
+   *          sharded implementation
+   * @return {@link StatisticsDB} a new instance that is not set up yet
+   */
+  public static StatisticsDB createStatisticsDB(String type, int numberOfShards) {
+    return Main.createStatisticsDB(type, numberOfShards, Layout.ROW_MAJOR);
+  }
+
+  /**
+   * @param type
+   *          <code>String</code> the name of the implementation as accepted by
+   *          the <code>-d</code> option
+   * @param numberOfShards
+   *          <code>int</code> the number of shards per triple position of the
+   *          sharded implementation
+   * @param layout
+   *          {@link Layout} the layout of the table, only the base
+   *          implementation supports {@link Layout#ROW_AND_COLUMN_MAJOR}
+   * @return {@link StatisticsDB} a new instance that is not set up yet
+   */
+  public static StatisticsDB createStatisticsDB(String type, int numberOfShards,
+          Layout layout) {
+    if ((layout != Layout.ROW_MAJOR) && !type.equals("base")) {
+      throw new IllegalArgumentException(
+              "The layout " + layout + " is not supported by the database type " + type + ".");
+    }
+    switch (type) {
+      case "base":
+        return new StatisticsDBBaseImpl(layout);
+      case "impl":
+        return new StatisticsDBImpl();
+      case "memory":
+        return new StatisticsDBInMemoryImpl();
+      case "mapped":
+        return new StatisticsDBMappedImpl();
+      case "concurrent":
+        return new StatisticsDBConcurrentImpl();
+      case "sparse":
+        return new StatisticsDBSparseImpl();
+      case "compact":
+        return new StatisticsDBCompactImpl();
+      case "countmin":
+        return new StatisticsDBCountMinImpl();
+      case "sharded":
+        return new StatisticsDBShardedImpl(numberOfShards);
+      case "writebehind":
+        return new StatisticsDBWriteBehindImpl();
+      default:
+        throw new IllegalArgumentException("Unknown statistics database type " + type + ".");
+    }
+  }
+
+  private static void collectStatistics(File statisticsDir, File[] chunks, String type,
+          int numberOfShards, Layout layout, int parallelism, boolean isPipelined, int batchSize,
+          int queueSize) {
     if (statisticsDir.exists() && !statisticsDir.isDirectory()) {
       throw new IllegalArgumentException(
               "The working directory " + statisticsDir.getAbsolutePath() + " is not a directory.");
@@ -35,28 +124,100 @@ public class Main {
       statisticsDir.mkdirs();
     }
 
-    // TODO adjust to your implementation
-    try (StatisticsDB statisticsDB = new StatisticsDBImpl();) {
+    try (StatisticsDB statisticsDB = Main.createStatisticsDB(type, numberOfShards, layout);) {
       statisticsDB.setUp(statisticsDir, chunks.length);
 
-      for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
-        File chunk = chunks[chunkI];
-        try (EncodedFileInputStream input = new EncodedFileInputStream(EncodingFileFormat.EEE,
-                chunk);) {
-          for (Statement stmt : input) {
-            statisticsDB.incrementFrequency(stmt.getSubjectAsLong(), chunkI,
-                    TriplePosition.SUBJECT);
-            statisticsDB.incrementFrequency(stmt.getPropertyAsLong(), chunkI,
-                    TriplePosition.PROPERTY);
-            statisticsDB.incrementFrequency(stmt.getObjectAsLong(), chunkI, TriplePosition.OBJECT);
+      if (isPipelined) {
+        PipelinedIngestion ingestion = new PipelinedIngestion(statisticsDB, batchSize, queueSize,
+                Math.max(1, parallelism));
+        ingestion.collectStatistics(chunks);
+        ingestion.printMetrics(System.out);
+      } else if (parallelism <= 1) {
+        for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
+          Main.collectStatistics(statisticsDB, chunks[chunkI], chunkI, batchSize);
+        }
+      } else {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+          List<Future<?>> results = new ArrayList<>();
+          for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
+            File chunk = chunks[chunkI];
+            int chunkNumber = chunkI;
+            results.add(workers
+                    .submit(() -> Main.collectStatistics(statisticsDB, chunk, chunkNumber,
+                            batchSize)));
           }
-        } catch (IOException e) {
+          for (Future<?> result : results) {
+            result.get();
+          }
+        } catch (InterruptedException | ExecutionException e) {
           throw new RuntimeException(e);
+        } finally {
+          workers.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the statements of one chunk in batches and adds each batch to the
+   * {@link StatisticsDB}. The chunk format is detected from the file header.
+   * Unless the {@link StatisticsDB} is thread-safe, the updates are
+   * synchronized on the {@link StatisticsDB} instance so that several chunks
+   * can be decoded concurrently.
+   */
+  private static void collectStatistics(StatisticsDB statisticsDB, File chunk, int chunkNumber,
+          int maxBatchSize) {
+    long[] subjects = new long[maxBatchSize];
+    long[] properties = new long[maxBatchSize];
+    long[] objects = new long[maxBatchSize];
+    try (EncodedStatementInput input = EncodedStatementInput.open(chunk);) {
+      EncodedStatement stmt = new EncodedStatement();
+      int batchSize = 0;
+      while (true) {
+        try {
+          input.read(stmt);
+        } catch (EOFException e) {
+          // the chunk is read completely
+          break;
         }
+        subjects[batchSize] = stmt.getSubject();
+        properties[batchSize] = stmt.getProperty();
+        objects[batchSize] = stmt.getObject();
+        batchSize++;
+        if (batchSize == maxBatchSize) {
+          Main.addBatch(statisticsDB, chunkNumber, subjects, properties, objects, batchSize);
+          batchSize = 0;
+        }
+      }
+      Main.addBatch(statisticsDB, chunkNumber, subjects, properties, objects, batchSize);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void addBatch(StatisticsDB statisticsDB, int chunkNumber, long[] subjects,
+          long[] properties, long[] objects, int batchSize) {
+    if (statisticsDB.isThreadSafe()) {
+      Main.addBatchUnsynchronized(statisticsDB, chunkNumber, subjects, properties, objects,
+              batchSize);
+    } else {
+      synchronized (statisticsDB) {
+        Main.addBatchUnsynchronized(statisticsDB, chunkNumber, subjects, properties, objects,
+                batchSize);
       }
     }
   }
 
+  private static void addBatchUnsynchronized(StatisticsDB statisticsDB, int chunkNumber,
+          long[] subjects, long[] properties, long[] objects, int batchSize) {
+    statisticsDB.incrementFrequencies(subjects, 0, batchSize, chunkNumber,
+            TriplePosition.SUBJECT);
+    statisticsDB.incrementFrequencies(properties, 0, batchSize, chunkNumber,
+            TriplePosition.PROPERTY);
+    statisticsDB.incrementFrequencies(objects, 0, batchSize, chunkNumber, TriplePosition.OBJECT);
+  }
+
   public static void main(String[] args) throws ParseException {
     Option help = new Option("h", "help", false, "print this help message");
     help.setRequired(false);
@@ -68,10 +229,61 @@ public class Main {
             .desc("the working directory in which the statistics database will be persisted")
             .required(true).build();
 
+    Option database = Option.builder("d").longOpt("database").hasArg().argName("type")
+            .desc("the statistics database implementation: base, impl (default), memory, mapped, "
+                    + "concurrent, writebehind, sparse, compact, sharded or countmin (approximate)")
+            .required(false).build();
+
+    Option shards = Option.builder("s").longOpt("shards").hasArg().argName("numberOfShards")
+            .desc("the number of shards per triple position of the sharded database (default "
+                    + StatisticsDBShardedImpl.DEFAULT_NUMBER_OF_SHARDS + ")")
+            .required(false).build();
+
+    Option columns = Option.builder("c").longOpt("columns")
+            .desc("additionally store the table column by column for scans of single chunks "
+                    + "and triple positions (base database only)")
+            .required(false).build();
+
+    Option parallelism = Option.builder("p").longOpt("parallelism").hasArg()
+            .argName("numberOfThreads")
+            .desc("the number of chunks that are read concurrently (default 1)").required(false)
+            .build();
+
+    Option pipelined = Option.builder("l").longOpt("pipelined")
+            .desc("decode and count in separate stages connected by a bounded queue")
+            .required(false).build();
+
+    Option batchSize = Option.builder("b").longOpt("batchSize").hasArg()
+            .argName("numberOfStatements")
+            .desc("the number of statements decoded per batch (default " + DEFAULT_BATCH_SIZE
+                    + ")")
+            .required(false).build();
+
+    Option queueSize = Option.builder("q").longOpt("queueSize").hasArg()
+            .argName("numberOfBatches")
+            .desc("the number of decoded batches the pipelined mode buffers (default "
+                    + DEFAULT_QUEUE_SIZE + ")")
+            .required(false).build();
+
+    Option externalSort = Option.builder("x").longOpt("externalSort").hasArg()
+            .argName("memoryBudgetInMiB")
+            .desc("sort the occurrences in runs of the given memory budget and write the table of "
+                    + "the base implementation sequentially (default budget "
+                    + (SortedRunIngestion.DEFAULT_MEMORY_BUDGET >>> 20) + " MiB)")
+            .optionalArg(true).required(false).build();
+
     Options options = new Options();
     options.addOption(help);
     options.addOption(input);
     options.addOption(working);
+    options.addOption(database);
+    options.addOption(shards);
+    options.addOption(columns);
+    options.addOption(parallelism);
+    options.addOption(pipelined);
+    options.addOption(batchSize);
+    options.addOption(queueSize);
+    options.addOption(externalSort);
 
     CommandLineParser parser = new DefaultParser();
     try {
@@ -86,8 +298,39 @@ public class Main {
       File inputDir = new File(cLine.getOptionValue('i'));
 
       File[] chunks = inputDir.listFiles();
+      if (chunks == null) {
+        throw new ParseException(
+                "The input directory " + inputDir.getAbsolutePath() + " is not a directory.");
+      }
       Arrays.sort(chunks);
-      Main.collectStatistics(workingDir, chunks);
+      if (cLine.hasOption('x')) {
+        // the sorted run ingestion always writes the table of the base database
+        StringBuilder ignoredOptions = new StringBuilder();
+        for (char ignoredOption : new char[] { 'd', 's', 'c', 'p', 'l', 'b', 'q' }) {
+          if (cLine.hasOption(ignoredOption)) {
+            ignoredOptions.append(ignoredOptions.length() == 0 ? "" : ", ").append('-')
+                    .append(ignoredOption);
+          }
+        }
+        if (ignoredOptions.length() > 0) {
+          throw new ParseException(
+                  "The option -x cannot be combined with " + ignoredOptions + ".");
+        }
+        long memoryBudget = Main.parsePositiveNumber(cLine, 'x',
+                SortedRunIngestion.DEFAULT_MEMORY_BUDGET >>> 20, Long.MAX_VALUE >>> 20) << 20;
+        SortedRunIngestion ingestion = new SortedRunIngestion(workingDir, memoryBudget);
+        ingestion.collectStatistics(chunks);
+        ingestion.printMetrics(System.out);
+        return;
+      }
+      Main.collectStatistics(workingDir, chunks, cLine.getOptionValue('d', "impl"),
+              (int) Main.parsePositiveNumber(cLine, 's',
+                      StatisticsDBShardedImpl.DEFAULT_NUMBER_OF_SHARDS, Integer.MAX_VALUE),
+              cLine.hasOption('c') ? Layout.ROW_AND_COLUMN_MAJOR : Layout.ROW_MAJOR,
+              (int) Main.parsePositiveNumber(cLine, 'p', 1, Integer.MAX_VALUE),
+              cLine.hasOption('l'),
+              (int) Main.parsePositiveNumber(cLine, 'b', DEFAULT_BATCH_SIZE, Integer.MAX_VALUE),
+              (int) Main.parsePositiveNumber(cLine, 'q', DEFAULT_QUEUE_SIZE, Integer.MAX_VALUE));
 
     } catch (ParseException e) {
       Main.printUsage(options);
@@ -95,9 +338,40 @@ public class Main {
     }
   }
 
+  /**
+   * @return <code>long</code> the value of <code>option</code> or
+   *         <code>defaultValue</code> if the option or its optional value is
+   *         missing
+   * @throws ParseException
+   *           if the value is not a number between 1 and <code>maxValue</code>
+   */
+  private static long parsePositiveNumber(CommandLine cLine, char option, long defaultValue,
+          long maxValue) throws ParseException {
+    String value = cLine.getOptionValue(option);
+    if (value == null) {
+      return defaultValue;
+    }
+    long number;
+    try {
+      number = Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ParseException("The value " + value + " of option -" + option
+              + " is not a number.");
+    }
+    if ((number < 1) || (number > maxValue)) {
+      throw new ParseException("The value " + value + " of option -" + option
+              + " must be between 1 and " + maxValue + ".");
+    }
+    return number;
+  }
+
   private static void printUsage(Options options) {
     HelpFormatter formatter = new HelpFormatter();
-    formatter.printHelp("java " + Main.class + " [-h] -i <inputDir> -w <workingDir>", options);
+    formatter.printHelp("java " + Main.class
+            + " [-h] -i <inputDir> -w <workingDir> [-d <type>] [-s <numberOfShards>] [-c]"
+            + " [-p <numberOfThreads>] [-l]"
+            + " [-b <numberOfStatements>] [-q <numberOfBatches>] [-x [<memoryBudgetInMiB>]]",
+            options);
   }
 
 }
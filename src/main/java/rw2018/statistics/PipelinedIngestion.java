@@ -0,0 +1,257 @@
+package rw2018.statistics;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
+
+/**
+ * Collects the statistics of several chunks in two overlapping stages. The
+ * decoding stage inflates and decodes the chunks into batches of primitive id
+ * arrays. The counting stage adds the batches to the {@link StatisticsDB}. The
+ * stages are connected by a bounded queue. The batch arrays are recycled
+ * through a second queue, so that no arrays are allocated after start up.
+ *
+ * The counting stage runs in the calling thread. Therefore, the
+ * {@link StatisticsDB} does not need to be thread-safe, even if several
+ * decoders are used.
+ *
+ */
+class PipelinedIngestion {
+
+  private final StatisticsDB statisticsDB;
+
+  private final int batchSize;
+
+  private final int queueSize;
+
+  private final int numberOfDecoders;
+
+  private final StageMetrics decodingMetrics;
+
+  private final StageMetrics countingMetrics;
+
+  /**
+   * @param statisticsDB
+   *          {@link StatisticsDB} that is already set up
+   * @param batchSize
+   *          <code>int</code> the maximal number of statements per batch
+   * @param queueSize
+   *          <code>int</code> the maximal number of decoded batches waiting for
+   *          the counting stage
+   * @param numberOfDecoders
+   *          <code>int</code> the number of chunks that are decoded
+   *          concurrently
+   */
+  public PipelinedIngestion(StatisticsDB statisticsDB, int batchSize, int queueSize,
+          int numberOfDecoders) {
+    if ((batchSize < 1) || (queueSize < 1) || (numberOfDecoders < 1)) {
+      throw new IllegalArgumentException(
+              "The batch size, the queue size and the number of decoders must be > 0.");
+    }
+    this.statisticsDB = statisticsDB;
+    this.batchSize = batchSize;
+    this.queueSize = queueSize;
+    this.numberOfDecoders = numberOfDecoders;
+    decodingMetrics = new StageMetrics("decoding");
+    countingMetrics = new StageMetrics("counting");
+  }
+
+  public void collectStatistics(File[] chunks) {
+    BlockingQueue<Batch> decodedBatches = new ArrayBlockingQueue<>(queueSize);
+    int numberOfBatches = queueSize + numberOfDecoders + 1;
+    BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(numberOfBatches);
+    for (int i = 0; i < numberOfBatches; i++) {
+      freeBatches.add(new Batch(batchSize));
+    }
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    long start = System.nanoTime();
+    ExecutorService decoders = Executors.newFixedThreadPool(numberOfDecoders);
+    try {
+      for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
+        File chunk = chunks[chunkI];
+        int chunkNumber = chunkI;
+        decoders.execute(() -> {
+          try {
+            decode(chunk, chunkNumber, freeBatches, decodedBatches);
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            try {
+              decodedBatches.put(Batch.END_OF_CHUNK);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+
+      for (int finishedChunks = 0; finishedChunks < chunks.length;) {
+        long waitStart = System.nanoTime();
+        Batch batch = decodedBatches.take();
+        long countStart = System.nanoTime();
+        countingMetrics.addWaitTime(countStart - waitStart);
+        if (batch == Batch.END_OF_CHUNK) {
+          finishedChunks++;
+          continue;
+        }
+        if (failure.get() == null) {
+          count(batch);
+        }
+        countingMetrics.addBatch(batch.size, System.nanoTime() - countStart);
+        freeBatches.put(batch);
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      decoders.shutdownNow();
+      decodingMetrics.setElapsedTime(System.nanoTime() - start);
+      countingMetrics.setElapsedTime(System.nanoTime() - start);
+    }
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+  }
+
+  private void decode(File chunk, int chunkNumber, BlockingQueue<Batch> freeBatches,
+          BlockingQueue<Batch> decodedBatches) throws IOException, InterruptedException {
+    try (EncodedStatementInput input = EncodedStatementInput.open(chunk);) {
+      EncodedStatement stmt = new EncodedStatement();
+      boolean isEndOfChunk = false;
+      while (!isEndOfChunk) {
+        long waitStart = System.nanoTime();
+        Batch batch = freeBatches.take();
+        long decodeStart = System.nanoTime();
+        decodingMetrics.addWaitTime(decodeStart - waitStart);
+        batch.chunkNumber = chunkNumber;
+        batch.size = 0;
+        try {
+          while (batch.size < batch.subjects.length) {
+            try {
+              input.read(stmt);
+            } catch (EOFException e) {
+              // the chunk is read completely
+              isEndOfChunk = true;
+              break;
+            }
+            batch.subjects[batch.size] = stmt.getSubject();
+            batch.properties[batch.size] = stmt.getProperty();
+            batch.objects[batch.size] = stmt.getObject();
+            batch.size++;
+          }
+        } catch (Throwable e) {
+          // the partially decoded batch is not counted but the other decoders
+          // need it
+          freeBatches.add(batch);
+          throw e;
+        }
+        long decodeEnd = System.nanoTime();
+        decodingMetrics.addBatch(batch.size, decodeEnd - decodeStart);
+        decodedBatches.put(batch);
+        decodingMetrics.addWaitTime(System.nanoTime() - decodeEnd);
+      }
+    }
+  }
+
+  private void count(Batch batch) {
+    statisticsDB.incrementFrequencies(batch.subjects, 0, batch.size, batch.chunkNumber,
+            TriplePosition.SUBJECT);
+    statisticsDB.incrementFrequencies(batch.properties, 0, batch.size, batch.chunkNumber,
+            TriplePosition.PROPERTY);
+    statisticsDB.incrementFrequencies(batch.objects, 0, batch.size, batch.chunkNumber,
+            TriplePosition.OBJECT);
+  }
+
+  public void printMetrics(PrintStream out) {
+    out.println(decodingMetrics);
+    out.println(countingMetrics);
+  }
+
+  private static class Batch {
+
+    private static final Batch END_OF_CHUNK = new Batch(0);
+
+    private final long[] subjects;
+
+    private final long[] properties;
+
+    private final long[] objects;
+
+    private int size;
+
+    private int chunkNumber;
+
+    public Batch(int batchSize) {
+      subjects = new long[batchSize];
+      properties = new long[batchSize];
+      objects = new long[batchSize];
+    }
+
+  }
+
+  /**
+   * Throughput metrics of one stage. The busy time is the time spent in the
+   * stage itself, the wait time is the time spent waiting for the queues. If a
+   * stage runs in several threads, both times are summed up over all threads.
+   */
+  private static class StageMetrics {
+
+    private final String name;
+
+    private final AtomicLong numberOfStatements;
+
+    private final AtomicLong numberOfBatches;
+
+    private final AtomicLong busyTime;
+
+    private final AtomicLong waitTime;
+
+    private volatile long elapsedTime;
+
+    public StageMetrics(String name) {
+      this.name = name;
+      numberOfStatements = new AtomicLong();
+      numberOfBatches = new AtomicLong();
+      busyTime = new AtomicLong();
+      waitTime = new AtomicLong();
+    }
+
+    public void addBatch(int batchSize, long nanos) {
+      numberOfStatements.addAndGet(batchSize);
+      numberOfBatches.incrementAndGet();
+      busyTime.addAndGet(nanos);
+    }
+
+    public void addWaitTime(long nanos) {
+      waitTime.addAndGet(nanos);
+    }
+
+    public void setElapsedTime(long nanos) {
+      elapsedTime = nanos;
+    }
+
+    @Override
+    public String toString() {
+      long statements = numberOfStatements.get();
+      return String.format(
+              "%s stage: %d statements in %d batches, elapsed %d ms, busy %d ms, waiting %d ms, "
+                      + "%.0f statements/s (%.0f statements/s while busy)",
+              name, statements, numberOfBatches.get(), elapsedTime / 1_000_000,
+              busyTime.get() / 1_000_000, waitTime.get() / 1_000_000,
+              statements / Math.max(elapsedTime / 1e9, 1e-9),
+              statements / Math.max(busyTime.get() / 1e9, 1e-9));
+    }
+
+  }
+
+}
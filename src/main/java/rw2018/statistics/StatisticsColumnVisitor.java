@@ -0,0 +1,21 @@
+package rw2018.statistics;
+
+/**
+ * Receives the frequencies of one chunk and triple position of a
+ * {@link StatisticsDB} during
+ * {@link StatisticsDB#forEachFrequency(int, TriplePosition, StatisticsColumnVisitor)}.
+ *
+ */
+@FunctionalInterface
+public interface StatisticsColumnVisitor {
+
+  /**
+   * @param resourceId
+   *          <code>long</code> the id of the resource
+   * @param frequency
+   *          <code>long</code> the non-zero frequency of the resource in the
+   *          visited chunk and triple position
+   */
+  public void visitFrequency(long resourceId, long frequency);
+
+}
@@ -1,6 +1,11 @@
 package rw2018.statistics;
 
 import java.io.File;
+import java.io.StringWriter;
+
+import rw2018.statistics.io.StatisticsExport;
+import rw2018.statistics.utilities.HyperLogLog;
+import rw2018.statistics.utilities.TopKHeap;
 
 /**
  * This interface describes the access to the statistics database. The
@@ -80,6 +85,17 @@ public interface StatisticsDB extends AutoCloseable {
    */
   public int getNumberOfChunks();
 
+  /**
+   * @return <code>true</code> if {@link #incrementFrequency(long, int, TriplePosition)},
+   *         {@link #getFrequency(long, int, TriplePosition)} and
+   *         {@link #getFrequencies(long)} may be called concurrently by several
+   *         threads without external synchronization. By default,
+   *         <code>false</code> is returned.
+   */
+  public default boolean isThreadSafe() {
+    return false;
+  }
+
   /**
    * @return {@link TriplePosition}[] that stores the triple positions that are
    *         stored by this {@link StatisticsDB} as well as there ordering as
@@ -106,6 +122,59 @@ public interface StatisticsDB extends AutoCloseable {
    */
   public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition);
 
+  /**
+   * Increments the frequency of each resource in <code>resourceIds</code> at
+   * the triple position <code>triplePosition</code> in chunk
+   * <code>chunkNumber</code> by 1. A resource id that occurs several times in
+   * the array is incremented several times.
+   * 
+   * @param resourceIds
+   *          <code>long[]</code> the ids of the resources whose occurrences
+   *          should be increased
+   * @param chunkNumber
+   *          <code>int</code> the number of the chunk in which the resources
+   *          occur
+   * @param triplePosition
+   *          {@link TriplePosition} the position in the triple at which the
+   *          resources occur
+   * @see #incrementFrequency(long, int, TriplePosition)
+   */
+  public default void incrementFrequencies(long[] resourceIds, int chunkNumber,
+          TriplePosition triplePosition) {
+    incrementFrequencies(resourceIds, 0, resourceIds.length, chunkNumber, triplePosition);
+  }
+
+  /**
+   * Increments the frequency of the resources
+   * <code>resourceIds[offset]</code> to
+   * <code>resourceIds[offset + length - 1]</code> at the triple position
+   * <code>triplePosition</code> in chunk <code>chunkNumber</code> by 1. The
+   * array itself is not modified. By default,
+   * {@link #incrementFrequency(long, int, TriplePosition)} is called for each
+   * resource id. Implementations may override this method to coalesce
+   * duplicate ids or to apply the updates in the order of the storage.
+   * 
+   * @param resourceIds
+   *          <code>long[]</code> the ids of the resources whose occurrences
+   *          should be increased
+   * @param offset
+   *          <code>int</code> the index of the first resource id
+   * @param length
+   *          <code>int</code> the number of resource ids
+   * @param chunkNumber
+   *          <code>int</code> the number of the chunk in which the resources
+   *          occur
+   * @param triplePosition
+   *          {@link TriplePosition} the position in the triple at which the
+   *          resources occur
+   */
+  public default void incrementFrequencies(long[] resourceIds, int offset, int length,
+          int chunkNumber, TriplePosition triplePosition) {
+    for (int i = offset; i < (offset + length); i++) {
+      incrementFrequency(resourceIds[i], chunkNumber, triplePosition);
+    }
+  }
+
   /**
    * Returns how frequently resource <code>resourceId</code> occurs at the
    * triple position <code>triplePosition</code> in chunk
@@ -160,35 +229,226 @@ public interface StatisticsDB extends AutoCloseable {
     return resourceRow;
   }
 
-  public default String prettyPrint() {
-    StringBuilder sb = new StringBuilder();
-    sb.append("RessourceId");
-    for (TriplePosition pos : getTriplePositions()) {
-      for (int chunkI = 0; chunkI < getNumberOfChunks(); chunkI++) {
-        sb.append(",").append(pos).append("-chunk").append(chunkI);
-      }
+  /**
+   * Returns how frequently resource <code>resourceId</code> occurs at the
+   * triple position <code>triplePosition</code> in all chunks together. By
+   * default, the frequencies of the chunks returned by
+   * {@link #getFrequencies(long)} are summed up. Implementations that maintain
+   * this marginal during the updates answer in constant time.
+   *
+   * @param resourceId
+   *          <code>long</code> the id of the requested resource
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @return <code>long</code> the total frequency of resource
+   *         <code>resourceId</code> at the triple position
+   *         <code>triplePosition</code>. If the resource is not found,
+   *         <code>-1</code> is returned.
+   */
+  public default long getTotalFrequency(long resourceId, TriplePosition triplePosition) {
+    int firstColumn = TableColumns.getFirstColumn(this, triplePosition);
+    long[] frequencies = getFrequencies(resourceId);
+    if (frequencies == null) {
+      return -1;
     }
-    for (int resourceId = 1; true; resourceId++) {
+    long totalFrequency = 0;
+    for (int chunkI = 0; chunkI < getNumberOfChunks(); chunkI++) {
+      totalFrequency += frequencies[firstColumn + chunkI];
+    }
+    return totalFrequency;
+  }
+
+  /**
+   * Returns the sum of the frequencies of all resources at the triple position
+   * <code>triplePosition</code> in chunk <code>chunkNumber</code>, i.e., the
+   * number of triples in the chunk if each triple has a resource at this
+   * position. By default, all rows are scanned with
+   * {@link #forEachRow(StatisticsRowVisitor)}. Implementations that maintain this marginal
+   * during the updates answer in constant time.
+   *
+   * @param chunkNumber
+   *          <code>int</code> the number of the requested chunk
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @return <code>long</code> the number of occurrences at the triple position
+   *         <code>triplePosition</code> in chunk <code>chunkNumber</code>
+   */
+  public default long getChunkSize(int chunkNumber, TriplePosition triplePosition) {
+    int column = TableColumns.getFirstColumn(this, triplePosition) + chunkNumber;
+    long[] chunkSize = new long[1];
+    forEachRow((resourceId, frequencies) -> chunkSize[0] += frequencies[column]);
+    return chunkSize[0];
+  }
+
+  /**
+   * Returns the number of distinct resources that occur at the triple position
+   * <code>triplePosition</code> in chunk <code>chunkNumber</code>. By default,
+   * the resources are counted exactly with one scan of
+   * {@link #forEachRow(StatisticsRowVisitor)}. Implementations that maintain a
+   * {@link HyperLogLog} sketch per chunk and triple position during the
+   * updates return an estimate without a scan.
+   *
+   * @param chunkNumber
+   *          <code>int</code> the number of the requested chunk
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @return <code>long</code> the number of resources with a frequency &gt; 0
+   *         at the triple position in the chunk
+   */
+  public default long getNumberOfDistinctResources(int chunkNumber,
+          TriplePosition triplePosition) {
+    int column = TableColumns.getFirstColumn(this, triplePosition) + chunkNumber;
+    long[] numberOfResources = new long[1];
+    forEachRow((resourceId, frequencies) -> {
+      if (frequencies[column] > 0) {
+        numberOfResources[0]++;
+      }
+    });
+    return numberOfResources[0];
+  }
+
+  /**
+   * Returns the number of distinct resources that occur at the triple position
+   * <code>triplePosition</code> in at least one chunk. By default, the
+   * resources are counted exactly with one scan of
+   * {@link #forEachRow(StatisticsRowVisitor)}. Implementations that maintain
+   * {@link HyperLogLog} sketches estimate the number from the union of the
+   * sketches of all chunks.
+   *
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @return <code>long</code> the number of resources with a total frequency
+   *         &gt; 0 at the triple position
+   */
+  public default long getNumberOfDistinctResources(TriplePosition triplePosition) {
+    int firstColumn = TableColumns.getFirstColumn(this, triplePosition);
+    int numberOfChunks = getNumberOfChunks();
+    long[] numberOfResources = new long[1];
+    forEachRow((resourceId, frequencies) -> {
+      for (int i = firstColumn; i < (firstColumn + numberOfChunks); i++) {
+        if (frequencies[i] > 0) {
+          numberOfResources[0]++;
+          break;
+        }
+      }
+    });
+    return numberOfResources[0];
+  }
+
+  /**
+   * Returns a {@link HyperLogLog} sketch of the resources that occur at the
+   * triple position <code>triplePosition</code> in chunk
+   * <code>chunkNumber</code>. The sketch belongs to the caller. It can be
+   * merged with the sketches of other chunks or other databases in order to
+   * estimate the number of distinct resources of their union. By default, the
+   * sketch is built with one scan of {@link #forEachRow(StatisticsRowVisitor)}.
+   *
+   * @param chunkNumber
+   *          <code>int</code> the number of the requested chunk
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @return {@link HyperLogLog} with the default precision
+   */
+  public default HyperLogLog getDistinctResourceSketch(int chunkNumber,
+          TriplePosition triplePosition) {
+    int column = TableColumns.getFirstColumn(this, triplePosition) + chunkNumber;
+    HyperLogLog sketch = new HyperLogLog();
+    forEachRow((resourceId, frequencies) -> {
+      if (frequencies[column] > 0) {
+        sketch.add(resourceId);
+      }
+    });
+    return sketch;
+  }
+
+  /**
+   * Returns the ids of the <code>k</code> resources that occur most frequently
+   * at the triple position <code>triplePosition</code> in chunk
+   * <code>chunkNumber</code> in descending order of their frequencies. Resources
+   * with the same frequency are ordered by their ids. Resources that do not
+   * occur in the chunk are not returned, so the result may contain less than
+   * <code>k</code> ids. By default, all rows are scanned with
+   * {@link #forEachRow(StatisticsRowVisitor)}. Implementations may answer from
+   * an index.
+   * 
+   * @param chunkNumber
+   *          <code>int</code> the number of the requested chunk
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @param k
+   *          <code>int</code> the maximal number of returned resources
+   * @return <code>long[]</code> the ids of the most frequent resources
+   */
+  public default long[] getTopResources(int chunkNumber, TriplePosition triplePosition, int k) {
+    TopKHeap heap = new TopKHeap(k);
+    forEachFrequency(chunkNumber, triplePosition, (resourceId, frequency) -> {
+      if (frequency > 0) {
+        heap.offer(resourceId, frequency);
+      }
+    });
+    return heap.toSortedIds();
+  }
+
+  /**
+   * Passes each resource that occurs at the triple position
+   * <code>triplePosition</code> in chunk <code>chunkNumber</code> together with
+   * its frequency to <code>visitor</code> in ascending order of the resource
+   * ids. By default, all rows are scanned with
+   * {@link #forEachRow(StatisticsRowVisitor)}. Implementations that store the
+   * table column by column read only the requested column.
+   * 
+   * @param chunkNumber
+   *          <code>int</code> the number of the requested chunk
+   * @param triplePosition
+   *          {@link TriplePosition} the requested position in the triple
+   * @param visitor
+   *          {@link StatisticsColumnVisitor} that receives the frequencies
+   */
+  public default void forEachFrequency(int chunkNumber, TriplePosition triplePosition,
+          StatisticsColumnVisitor visitor) {
+    int column = TableColumns.getFirstColumn(this, triplePosition) + chunkNumber;
+    forEachRow((resourceId, frequencies) -> {
+      if (frequencies[column] != 0) {
+        visitor.visitFrequency(resourceId, frequencies[column]);
+      }
+    });
+  }
+
+  /**
+   * Passes each resource with at least one non-zero frequency to
+   * <code>visitor</code> in ascending order of the resource ids. By default,
+   * {@link #getFrequencies(long)} is called for the resource ids starting with
+   * 1 until the first missing resource. Implementations scan their storage
+   * sequentially and reuse one array for all rows.
+   * 
+   * @param visitor
+   *          {@link StatisticsRowVisitor} that receives the rows
+   */
+  public default void forEachRow(StatisticsRowVisitor visitor) {
+    for (long resourceId = 1; true; resourceId++) {
       long[] frequencies = getFrequencies(resourceId);
       if (frequencies == null) {
         break;
       }
-      boolean isEmpty = true;
       for (long frequency : frequencies) {
-        if (frequency > 0) {
-          isEmpty = false;
+        if (frequency != 0) {
+          visitor.visitRow(resourceId, frequencies);
           break;
         }
       }
-      if (isEmpty) {
-        continue;
-      }
-      sb.append("\nresource:").append(resourceId);
-      for (long frequency : frequencies) {
-        sb.append(",").append(frequency);
-      }
     }
-    return sb.toString();
+  }
+
+  /**
+   * @return <code>String</code> the table in the CSV format of
+   *         {@link StatisticsExport#writeCsv(StatisticsDB, java.io.Writer)}.
+   *         For large databases, the table should be exported into a file
+   *         instead.
+   */
+  public default String prettyPrint() {
+    StringWriter writer = new StringWriter();
+    StatisticsExport.writeCsv(this, writer);
+    return writer.toString();
   }
 
   @Override
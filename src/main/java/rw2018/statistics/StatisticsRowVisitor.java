@@ -0,0 +1,21 @@
+package rw2018.statistics;
+
+/**
+ * Receives the rows of a {@link StatisticsDB} during
+ * {@link StatisticsDB#forEachRow(StatisticsRowVisitor)}.
+ *
+ */
+@FunctionalInterface
+public interface StatisticsRowVisitor {
+
+  /**
+   * @param resourceId
+   *          <code>long</code> the id of the resource
+   * @param frequencies
+   *          <code>long[]</code> the frequencies of the resource in the order
+   *          of {@link StatisticsDB#getFrequencies(long)}. The array is reused
+   *          for the following rows and must not be modified or kept.
+   */
+  public void visitRow(long resourceId, long[] frequencies);
+
+}
@@ -0,0 +1,26 @@
+package rw2018.statistics;
+
+/**
+ * Locates the columns of a triple position in the rows returned by
+ * {@link StatisticsDB#getFrequencies(long)} for the default methods of
+ * {@link StatisticsDB}.
+ *
+ */
+class TableColumns {
+
+  /**
+   * @param statisticsDB
+   * @param triplePosition
+   * @return <code>int</code> the index of the column of chunk 0 at
+   *         <code>triplePosition</code>. The column of chunk <code>c</code>
+   *         follows at offset <code>c</code>.
+   * @throws IllegalArgumentException
+   *           if <code>statisticsDB</code> does not store
+   *           <code>triplePosition</code>
+   */
+  static int getFirstColumn(StatisticsDB statisticsDB, TriplePosition triplePosition) {
+    return TriplePosition.indexOf(statisticsDB.getTriplePositions(), triplePosition)
+            * statisticsDB.getNumberOfChunks();
+  }
+
+}
@@ -1,5 +1,7 @@
 package rw2018.statistics;
 
+import java.util.Arrays;
+
 /**
  * Defines the triple positions at which a resource occurs.
  * 
@@ -10,4 +12,26 @@ public enum TriplePosition {
 
   SUBJECT, PROPERTY, OBJECT;
 
+  /**
+   * @param triplePositions
+   *          <code>TriplePosition[]</code> the triple positions stored by a
+   *          {@link StatisticsDB}
+   * @param triplePosition
+   * @return <code>int</code> the index of <code>triplePosition</code> in
+   *         <code>triplePositions</code>
+   * @throws IllegalArgumentException
+   *           if <code>triplePositions</code> does not contain
+   *           <code>triplePosition</code>
+   */
+  public static int indexOf(TriplePosition[] triplePositions, TriplePosition triplePosition) {
+    for (int i = 0; i < triplePositions.length; i++) {
+      if (triplePositions[i] == triplePosition) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("The triple position " + triplePosition
+            + " is not supported. Supported triple positions are "
+            + Arrays.toString(triplePositions) + ".");
+  }
+
 }
@@ -0,0 +1,288 @@
+package rw2018.statistics.impl;
+
+import java.io.File;
+import java.util.Arrays;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.HyperLogLog;
+
+/**
+ * Maintains the summaries that are stored next to the table of a statistics
+ * database: the {@link StatisticsDBMarginals}, the index of the
+ * {@link StatisticsDBTopResources} and the sketches of the
+ * {@link StatisticsDBDistinctResources}. Subclasses open the summaries at the
+ * end of {@link #setUp(File, int)} with
+ * {@link #openSummaries(File, StatisticsDBMarginals)}, pass each increment to
+ * {@link #addToSummaries(long, long, int, int, long)} and store the summaries
+ * together with the metadata during {@link #close()} with
+ * {@link #writeSummaries(StatisticsDBMetadata, StatisticsDBTopResources)}.
+ *
+ * The marginals are addressed by row numbers. A subclass maps resource ids to
+ * row numbers with {@link #getRowNumber(long)}.
+ *
+ * Before the first increment of a session, the database is marked as modified
+ * with {@link StatisticsDBMetadata#markModified(File)}. Subclasses that write
+ * their files in place call {@link #markModified()} before the first write.
+ * The marker is deleted by
+ * {@link #writeSummaries(StatisticsDBMetadata, StatisticsDBTopResources)}, so
+ * that summaries of an interrupted session are not read again. If a session
+ * did not write anything, {@link #computeChecksum(File, long)} reuses the
+ * checksum of the stored metadata instead of reading the whole table.
+ *
+ */
+abstract class AbstractStatisticsDB implements StatisticsDB {
+
+  private File statisticsDir;
+
+  protected StatisticsDBMarginals marginals;
+
+  private volatile StatisticsDBTopResources topResources;
+
+  private StatisticsDBDistinctResources distinctResources;
+
+  private volatile boolean isModified;
+
+  /**
+   * The metadata stored when the database was closed last or
+   * <code>null</code> if the database was not closed properly.
+   */
+  private StatisticsDBMetadata storedMetadata;
+
+  /**
+   * Reads the stored index of the most frequent resources and the stored
+   * sketches. Missing or outdated sketches are recomputed with one scan of
+   * {@link #forEachRow(rw2018.statistics.StatisticsRowVisitor)}, so the table
+   * has to be readable.
+   *
+   * @param statisticsDir
+   * @param marginals
+   *          {@link StatisticsDBMarginals} of the current table
+   */
+  protected void openSummaries(File statisticsDir, StatisticsDBMarginals marginals) {
+    openSummaries(statisticsDir, marginals, StatisticsDBTopResources.read(statisticsDir),
+            StatisticsDBDistinctResources.load(statisticsDir, this));
+  }
+
+  /**
+   * Uses summaries that have already been read.
+   *
+   * @param statisticsDir
+   * @param marginals
+   *          {@link StatisticsDBMarginals} of the current table
+   * @param topResources
+   *          {@link StatisticsDBTopResources} of the current table or
+   *          <code>null</code> if it is built on demand
+   * @param distinctResources
+   *          {@link StatisticsDBDistinctResources} of the current table
+   */
+  protected void openSummaries(File statisticsDir, StatisticsDBMarginals marginals,
+          StatisticsDBTopResources topResources,
+          StatisticsDBDistinctResources distinctResources) {
+    this.statisticsDir = statisticsDir;
+    isModified = false;
+    storedMetadata = StatisticsDBMetadata.readIfConsistent(statisticsDir);
+    this.marginals = marginals;
+    this.topResources = topResources;
+    this.distinctResources = distinctResources;
+  }
+
+  /**
+   * @param resourceId
+   *          <code>long</code> a resource id &gt; 0
+   * @return <code>long</code> the row number of the resource in the
+   *         marginals or -1 if the resource is not stored
+   */
+  protected abstract long getRowNumber(long resourceId);
+
+  /**
+   * Waits until all accepted increments are visible in the summaries. By
+   * default, increments are applied immediately.
+   */
+  protected void awaitUpdates() {
+  }
+
+  protected int getIndexOfTriplePosition(TriplePosition triplePosition) {
+    return TriplePosition.indexOf(getTriplePositions(), triplePosition);
+  }
+
+  /**
+   * Sorts <code>resourceIds</code> in place and passes each distinct resource
+   * id together with the number of its occurrences to <code>consumer</code>
+   * in ascending order of the ids. Thereby, the cell of a resource is updated
+   * only once per batch and the storage is traversed in ascending order.
+   */
+  protected static <E extends Exception> void forEachDistinctResource(long[] resourceIds,
+          ResourceCountConsumer<E> consumer) throws E {
+    Arrays.sort(resourceIds);
+    for (int i = 0; i < resourceIds.length;) {
+      int next = i + 1;
+      while ((next < resourceIds.length) && (resourceIds[next] == resourceIds[i])) {
+        next++;
+      }
+      consumer.accept(resourceIds[i], next - i);
+      i = next;
+    }
+  }
+
+  /**
+   * Marks the database as modified, if this has not been done in the current
+   * session. Concurrent calls create the marker at most once per call.
+   */
+  protected void markModified() {
+    if (!isModified) {
+      StatisticsDBMetadata.markModified(statisticsDir);
+      isModified = true;
+    }
+  }
+
+  /**
+   * @param statisticsFile
+   *          the statistics file of {@link Encoding#ROWS}, which has been
+   *          flushed
+   * @param length
+   *          <code>long</code> the length of the statistics file in bytes
+   * @return <code>long</code> the checksum of the statistics file. If it has
+   *         not been written since the database was opened properly, the
+   *         checksum of the stored metadata is returned without reading the
+   *         file.
+   */
+  protected long computeChecksum(File statisticsFile, long length) {
+    long bytesPerRow = (long) getNumberOfChunks() * getTriplePositions().length * Long.BYTES;
+    if (!isModified && (storedMetadata != null)
+            && (storedMetadata.getEncoding() == Encoding.ROWS)
+            && (storedMetadata.getNumberOfChunks() == getNumberOfChunks())
+            && (storedMetadata.getMaxResourceId() == ((length + bytesPerRow - 1) / bytesPerRow))) {
+      return storedMetadata.getChecksum();
+    }
+    return StatisticsDBMetadata.computeChecksum(statisticsFile);
+  }
+
+  /**
+   * Adds <code>delta</code> occurrences of the resource to the summaries.
+   */
+  protected void addToSummaries(long resourceId, long rowNumber, int indexOfTriplePosition,
+          int chunkNumber, long delta) {
+    markModified();
+    marginals.add(rowNumber, indexOfTriplePosition, chunkNumber, delta);
+    distinctResources.add(resourceId, indexOfTriplePosition, chunkNumber);
+    topResources = null;
+  }
+
+  /**
+   * Discards the stored index of the most frequent resources, e.g., before
+   * increments are applied asynchronously.
+   */
+  protected void invalidateTopResources() {
+    topResources = null;
+  }
+
+  /**
+   * @return {@link StatisticsDBTopResources} the stored index if the table has
+   *         not been modified since it was opened or a new index built with
+   *         one scan of {@link #forEachRow(rw2018.statistics.StatisticsRowVisitor)}
+   */
+  protected StatisticsDBTopResources getOrBuildTopResources() {
+    StatisticsDBTopResources topResources = this.topResources;
+    return topResources != null ? topResources
+            : StatisticsDBTopResources.build(this, StatisticsDBTopResources.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Writes <code>metadata</code> and the summaries that belong to the checksum
+   * stored in <code>metadata</code>. The marginals are only stored for
+   * {@link Encoding#ROWS} and {@link Encoding#SHARDED}. The other encodings
+   * recompute them while their table is loaded.
+   */
+  protected void writeSummaries(StatisticsDBMetadata metadata,
+          StatisticsDBTopResources topResources) {
+    metadata.write(statisticsDir);
+    if ((metadata.getEncoding() == Encoding.ROWS)
+            || (metadata.getEncoding() == Encoding.SHARDED)) {
+      marginals.write(statisticsDir, metadata.getChecksum());
+    }
+    topResources.write(statisticsDir, metadata.getChecksum());
+    distinctResources.write(statisticsDir, metadata.getChecksum());
+    StatisticsDBMetadata.clearModified(statisticsDir);
+  }
+
+  /**
+   * Answered from the index of the most frequent resources as long as the
+   * table has not been modified since it was opened and <code>k</code> does not
+   * exceed the capacity of the index. Otherwise, all rows are scanned.
+   */
+  @Override
+  public long[] getTopResources(int chunkNumber, TriplePosition triplePosition, int k) {
+    StatisticsDBTopResources topResources = this.topResources;
+    if (topResources != null) {
+      long[] resourceIds = topResources.getTopResources(getIndexOfTriplePosition(triplePosition),
+              chunkNumber, k);
+      if (resourceIds != null) {
+        return resourceIds;
+      }
+    }
+    return StatisticsDB.super.getTopResources(chunkNumber, triplePosition, k);
+  }
+
+  /**
+   * Answered from the marginals without reading the table.
+   */
+  @Override
+  public long getTotalFrequency(long resourceId, TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    if (resourceId <= 0) {
+      return -1;
+    }
+    awaitUpdates();
+    long rowNumber = getRowNumber(resourceId);
+    if (rowNumber < 0) {
+      return -1;
+    }
+    return marginals.getTotalFrequency(rowNumber, indexOfTriplePosition);
+  }
+
+  /**
+   * Answered from the marginals without reading the table.
+   */
+  @Override
+  public long getChunkSize(int chunkNumber, TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    awaitUpdates();
+    return marginals.getChunkSize(indexOfTriplePosition, chunkNumber);
+  }
+
+  /**
+   * Estimated from the {@link HyperLogLog} sketch of the chunk.
+   */
+  @Override
+  public long getNumberOfDistinctResources(int chunkNumber, TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    awaitUpdates();
+    return distinctResources.getNumberOfDistinctResources(indexOfTriplePosition, chunkNumber);
+  }
+
+  /**
+   * Estimated from the union of the {@link HyperLogLog} sketches of all chunks.
+   */
+  @Override
+  public long getNumberOfDistinctResources(TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    awaitUpdates();
+    return distinctResources.getNumberOfDistinctResources(indexOfTriplePosition);
+  }
+
+  @Override
+  public HyperLogLog getDistinctResourceSketch(int chunkNumber, TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    awaitUpdates();
+    return distinctResources.getSketch(indexOfTriplePosition, chunkNumber);
+  }
+
+  protected static interface ResourceCountConsumer<E extends Exception> {
+
+    public void accept(long resourceId, long count) throws E;
+
+  }
+
+}
@@ -0,0 +1,345 @@
+package rw2018.statistics.impl;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import rw2018.statistics.StatisticsColumnVisitor;
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.utilities.HyperLogLog;
+import rw2018.statistics.utilities.LongIntHashMap;
+
+/**
+ * A read-only view of another {@link StatisticsDB} that keeps the most
+ * recently used rows, as returned by {@link StatisticsDB#getFrequencies(long)},
+ * in a bounded LRU cache. {@link #getFrequency(long, int, TriplePosition)} is
+ * answered from the cached row as well. Unknown resources are cached, too.
+ *
+ * The cache is split into stripes, each guarded by its own lock, so that
+ * concurrent readers rarely contend. If the wrapped {@link StatisticsDB} is not
+ * thread-safe, cache misses are loaded while holding its lock.
+ *
+ * The wrapped {@link StatisticsDB} may be set up already, e.g., by
+ * {@link StatisticsDBReadOnlyImpl#open(File)}. In this case,
+ * {@link #setUp(File, int)} must not be called.
+ *
+ */
+public class CachingStatisticsDB implements StatisticsDB {
+
+  private static final int NUMBER_OF_STRIPES = 16;
+
+  private static final long[] UNKNOWN_RESOURCE = new long[0];
+
+  private final StatisticsDB statisticsDB;
+
+  private final RowCache[] stripes;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  /**
+   * @param statisticsDB
+   *          {@link StatisticsDB} whose rows are cached
+   * @param maximumSize
+   *          <code>int</code> the maximal number of cached rows
+   */
+  public CachingStatisticsDB(StatisticsDB statisticsDB, int maximumSize) {
+    this.statisticsDB = statisticsDB;
+    stripes = new RowCache[NUMBER_OF_STRIPES];
+    int stripeSize = Math.max(1, maximumSize / NUMBER_OF_STRIPES);
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new RowCache(stripeSize);
+    }
+    hits = new LongAdder();
+    misses = new LongAdder();
+  }
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    statisticsDB.setUp(statisticsDir, numberOfChunks);
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return statisticsDB.getNumberOfChunks();
+  }
+
+  @Override
+  public TriplePosition[] getTriplePositions() {
+    return statisticsDB.getTriplePositions();
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    throw new UnsupportedOperationException("The cached statistics database is read-only.");
+  }
+
+  private long[] getRow(long resourceId) {
+    RowCache stripe = stripes[(int) (resourceId ^ (resourceId >>> 32)) & (NUMBER_OF_STRIPES - 1)];
+    long[] row;
+    synchronized (stripe) {
+      row = stripe.get(resourceId);
+    }
+    if (row != null) {
+      hits.increment();
+      return row;
+    }
+    misses.increment();
+    if (statisticsDB.isThreadSafe()) {
+      row = statisticsDB.getFrequencies(resourceId);
+    } else {
+      synchronized (statisticsDB) {
+        row = statisticsDB.getFrequencies(resourceId);
+      }
+    }
+    if (row == null) {
+      row = UNKNOWN_RESOURCE;
+    }
+    synchronized (stripe) {
+      stripe.put(resourceId, row);
+    }
+    return row;
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if <code>triplePosition</code> is not supported by the wrapped
+   *           {@link StatisticsDB}
+   */
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    int indexOfTriplePosition = TriplePosition.indexOf(getTriplePositions(), triplePosition);
+    long[] row = getRow(resourceId);
+    if (row == UNKNOWN_RESOURCE) {
+      return -1;
+    }
+    return row[(indexOfTriplePosition * getNumberOfChunks()) + chunkNumber];
+  }
+
+  /**
+   * @return <code>long[]</code> a copy of the cached row
+   */
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    long[] row = getRow(resourceId);
+    return row == UNKNOWN_RESOURCE ? null : row.clone();
+  }
+
+  /**
+   * The rows are read from the wrapped {@link StatisticsDB} without being
+   * cached.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    if (statisticsDB.isThreadSafe()) {
+      statisticsDB.forEachRow(visitor);
+    } else {
+      synchronized (statisticsDB) {
+        statisticsDB.forEachRow(visitor);
+      }
+    }
+  }
+
+  /**
+   * The frequencies are read from the wrapped {@link StatisticsDB} without
+   * being cached.
+   */
+  @Override
+  public void forEachFrequency(int chunkNumber, TriplePosition triplePosition,
+          StatisticsColumnVisitor visitor) {
+    if (statisticsDB.isThreadSafe()) {
+      statisticsDB.forEachFrequency(chunkNumber, triplePosition, visitor);
+    } else {
+      synchronized (statisticsDB) {
+        statisticsDB.forEachFrequency(chunkNumber, triplePosition, visitor);
+      }
+    }
+  }
+
+  @Override
+  public long[] getTopResources(int chunkNumber, TriplePosition triplePosition, int k) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getTopResources(chunkNumber, triplePosition, k);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getTopResources(chunkNumber, triplePosition, k);
+    }
+  }
+
+  @Override
+  public long getTotalFrequency(long resourceId, TriplePosition triplePosition) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getTotalFrequency(resourceId, triplePosition);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getTotalFrequency(resourceId, triplePosition);
+    }
+  }
+
+  @Override
+  public long getChunkSize(int chunkNumber, TriplePosition triplePosition) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getChunkSize(chunkNumber, triplePosition);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getChunkSize(chunkNumber, triplePosition);
+    }
+  }
+
+  @Override
+  public long getNumberOfDistinctResources(int chunkNumber, TriplePosition triplePosition) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getNumberOfDistinctResources(chunkNumber, triplePosition);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getNumberOfDistinctResources(chunkNumber, triplePosition);
+    }
+  }
+
+  @Override
+  public long getNumberOfDistinctResources(TriplePosition triplePosition) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getNumberOfDistinctResources(triplePosition);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getNumberOfDistinctResources(triplePosition);
+    }
+  }
+
+  @Override
+  public HyperLogLog getDistinctResourceSketch(int chunkNumber, TriplePosition triplePosition) {
+    if (statisticsDB.isThreadSafe()) {
+      return statisticsDB.getDistinctResourceSketch(chunkNumber, triplePosition);
+    }
+    synchronized (statisticsDB) {
+      return statisticsDB.getDistinctResourceSketch(chunkNumber, triplePosition);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (RowCache stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+    statisticsDB.close();
+  }
+
+  /**
+   * An LRU cache whose entries are stored in primitive arrays. The slots of
+   * the entries are linked in the order of their last access and a
+   * {@link LongIntHashMap} maps each resource id to its slot, so that no
+   * objects are allocated per access. The resource id 0 is not cached.
+   */
+  private static class RowCache {
+
+    private static final int NO_SLOT = -1;
+
+    private final LongIntHashMap slots;
+
+    private final long[] resourceIds;
+
+    private final long[][] rows;
+
+    private final int[] previous;
+
+    private final int[] next;
+
+    private int mostRecentlyUsed;
+
+    private int leastRecentlyUsed;
+
+    private int size;
+
+    public RowCache(int maximumSize) {
+      slots = new LongIntHashMap(maximumSize);
+      resourceIds = new long[maximumSize];
+      rows = new long[maximumSize][];
+      previous = new int[maximumSize];
+      next = new int[maximumSize];
+      mostRecentlyUsed = NO_SLOT;
+      leastRecentlyUsed = NO_SLOT;
+    }
+
+    public long[] get(long resourceId) {
+      int slot = slots.get(resourceId, NO_SLOT);
+      if (slot == NO_SLOT) {
+        return null;
+      }
+      unlink(slot);
+      linkFirst(slot);
+      return rows[slot];
+    }
+
+    public void put(long resourceId, long[] row) {
+      if (resourceId == 0) {
+        return;
+      }
+      int slot = slots.get(resourceId, NO_SLOT);
+      if (slot != NO_SLOT) {
+        unlink(slot);
+      } else if (size < rows.length) {
+        slot = size++;
+      } else {
+        slot = leastRecentlyUsed;
+        unlink(slot);
+        slots.remove(resourceIds[slot]);
+      }
+      resourceIds[slot] = resourceId;
+      rows[slot] = row;
+      slots.put(resourceId, slot);
+      linkFirst(slot);
+    }
+
+    private void unlink(int slot) {
+      if (previous[slot] == NO_SLOT) {
+        mostRecentlyUsed = next[slot];
+      } else {
+        next[previous[slot]] = next[slot];
+      }
+      if (next[slot] == NO_SLOT) {
+        leastRecentlyUsed = previous[slot];
+      } else {
+        previous[next[slot]] = previous[slot];
+      }
+    }
+
+    private void linkFirst(int slot) {
+      previous[slot] = NO_SLOT;
+      next[slot] = mostRecentlyUsed;
+      if (mostRecentlyUsed == NO_SLOT) {
+        leastRecentlyUsed = slot;
+      } else {
+        previous[mostRecentlyUsed] = slot;
+      }
+      mostRecentlyUsed = slot;
+    }
+
+    public void clear() {
+      slots.clear();
+      Arrays.fill(rows, null);
+      mostRecentlyUsed = NO_SLOT;
+      leastRecentlyUsed = NO_SLOT;
+      size = 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,390 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.io.EncodedStatement;
+import rw2018.statistics.io.EncodedStatementInput;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Collects the statistics of chunks whose table does not fit into memory
+ * without random accesses to the statistics file. Each occurrence of a
+ * resource is represented by the index of its cell in the table of
+ * {@link Encoding#ROWS}, i.e., <code>(resourceId - 1) * sizeOfRow +
+ * indexOfTriplePosition * numberOfChunks + chunkNumber</code>. The cell
+ * indices are collected in a buffer of the configured memory budget. A full
+ * buffer is sorted, equal cell indices are aggregated into (cell index, count)
+ * pairs and the pairs are written as a sorted run into the run directory.
+ * Finally, the runs are combined by a k-way merge, which adds up the counts of
+ * equal cell indices, and the table is written sequentially into the file
+ * <code>statistics</code>. If there are more runs than can be merged within
+ * the memory budget, groups of runs are merged into larger runs first.
+ *
+ * The result is a database of {@link Encoding#ROWS} that can be opened by
+ * {@link StatisticsDBBaseImpl} and the other implementations of this
+ * encoding. Its statistics file is identical to the file written by
+ * {@link StatisticsDBBaseImpl} for the same chunks, i.e., the last row is not
+ * padded. Its marginals are computed when it is set up for the first time.
+ *
+ */
+public class SortedRunIngestion {
+
+  public static final long DEFAULT_MEMORY_BUDGET = 64l << 20;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private static final int MAX_NUMBER_OF_MERGED_RUNS = 256;
+
+  private final File statisticsDir;
+
+  private final File runDir;
+
+  private final long[] cells;
+
+  private final int maxNumberOfMergedRuns;
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private int size;
+
+  private final List<File> runs;
+
+  private int numberOfRuns;
+
+  private int numberOfSortedRuns;
+
+  private int numberOfMerges;
+
+  private long numberOfOccurrences;
+
+  private long runTime;
+
+  private long mergeTime;
+
+  /**
+   * @param statisticsDir
+   *          {@link File} a directory that does not contain a database yet
+   * @param memoryBudget
+   *          <code>long</code> the number of bytes used for sorting
+   */
+  public SortedRunIngestion(File statisticsDir, long memoryBudget) {
+    this(statisticsDir, new File(statisticsDir, "runs"), memoryBudget);
+  }
+
+  /**
+   * @param statisticsDir
+   *          {@link File} a directory that does not contain a database yet
+   * @param runDir
+   *          {@link File} the directory in which the sorted runs are stored
+   *          temporarily
+   * @param memoryBudget
+   *          <code>long</code> the number of bytes used for sorting
+   */
+  public SortedRunIngestion(File statisticsDir, File runDir, long memoryBudget) {
+    if (memoryBudget < (2 * BUFFER_SIZE)) {
+      throw new IllegalArgumentException(
+              "The memory budget must be at least " + (2 * BUFFER_SIZE) + " bytes.");
+    }
+    this.statisticsDir = statisticsDir;
+    this.runDir = runDir;
+    cells = new long[(int) Math.min(memoryBudget / Long.BYTES, Integer.MAX_VALUE - 8)];
+    maxNumberOfMergedRuns = (int) Math.max(2,
+            Math.min(MAX_NUMBER_OF_MERGED_RUNS, memoryBudget / BUFFER_SIZE));
+    runs = new ArrayList<>();
+  }
+
+  public void collectStatistics(File[] chunks) {
+    if (StatisticsDBMetadata.read(statisticsDir) != null) {
+      throw new IllegalArgumentException(
+              "The directory " + statisticsDir + " already contains a statistics database.");
+    }
+    numberOfChunks = chunks.length;
+    sizeOfRow = numberOfChunks * StatisticsDB.DEFAULT_TRIPLE_POSITIONS.length;
+    runDir.mkdirs();
+    try {
+      long start = System.nanoTime();
+      EncodedStatement stmt = new EncodedStatement();
+      for (int chunkI = 0; chunkI < chunks.length; chunkI++) {
+        try (EncodedStatementInput input = EncodedStatementInput.open(chunks[chunkI]);) {
+          while (true) {
+            try {
+              input.read(stmt);
+            } catch (EOFException e) {
+              // the chunk is read completely
+              break;
+            }
+            addOccurrence(stmt.getSubject(), 0, chunkI);
+            addOccurrence(stmt.getProperty(), 1, chunkI);
+            addOccurrence(stmt.getObject(), 2, chunkI);
+          }
+        }
+      }
+      if (size > 0) {
+        runs.add(writeRun());
+      }
+      long mergeStart = System.nanoTime();
+      runTime = mergeStart - start;
+      while (runs.size() > maxNumberOfMergedRuns) {
+        List<File> mergedRuns = new ArrayList<>(runs.subList(0, maxNumberOfMergedRuns));
+        runs.subList(0, maxNumberOfMergedRuns).clear();
+        runs.add(mergeRuns(mergedRuns));
+        numberOfMerges++;
+      }
+      writeTable();
+      numberOfMerges++;
+      mergeTime = System.nanoTime() - mergeStart;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      for (File run : runs) {
+        run.delete();
+      }
+      runs.clear();
+      runDir.delete();
+    }
+  }
+
+  private void addOccurrence(long resourceId, int indexOfTriplePosition, int chunkNumber)
+          throws IOException {
+    if ((resourceId <= 0) || ((resourceId - 1) > ((Long.MAX_VALUE / sizeOfRow) - 1))) {
+      throw new IllegalArgumentException("Illegal resource Id " + resourceId
+              + ". Resource ids must be > 0 and fit into the table.");
+    }
+    if (size == cells.length) {
+      runs.add(writeRun());
+    }
+    cells[size++] = ((resourceId - 1) * sizeOfRow) + (indexOfTriplePosition * numberOfChunks)
+            + chunkNumber;
+    numberOfOccurrences++;
+  }
+
+  /**
+   * Sorts the buffer and writes its aggregated cells as a new run.
+   */
+  private File writeRun() throws IOException {
+    Arrays.sort(cells, 0, size);
+    numberOfSortedRuns++;
+    File run = new File(runDir, String.format("run%06d", numberOfRuns++));
+    try (RunWriter output = new RunWriter(run);) {
+      for (int i = 0; i < size;) {
+        int next = i + 1;
+        while ((next < size) && (cells[next] == cells[i])) {
+          next++;
+        }
+        output.write(cells[i], next - i);
+        i = next;
+      }
+    }
+    size = 0;
+    return run;
+  }
+
+  private File mergeRuns(List<File> mergedRuns) throws IOException {
+    File run = new File(runDir, String.format("run%06d", numberOfRuns++));
+    try (RunWriter output = new RunWriter(run); RunMerger merger = new RunMerger(mergedRuns);) {
+      while (merger.next()) {
+        output.write(merger.cell, merger.count);
+      }
+    }
+    for (File mergedRun : mergedRuns) {
+      mergedRun.delete();
+    }
+    return run;
+  }
+
+  private void writeTable() throws IOException {
+    StatisticsDBDistinctResources distinctResources = new StatisticsDBDistinctResources(
+            numberOfChunks, StatisticsDB.DEFAULT_TRIPLE_POSITIONS.length);
+    long nextCell = 0;
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(
+                    new File(statisticsDir, Encoding.ROWS.getFileName())), checksum),
+            BUFFER_SIZE));
+            RunMerger merger = new RunMerger(runs);) {
+      while (merger.next()) {
+        // cells without occurrences are 0
+        for (; nextCell < merger.cell; nextCell++) {
+          output.writeLong(0);
+        }
+        output.writeLong(merger.count);
+        nextCell++;
+        int column = (int) (merger.cell % sizeOfRow);
+        distinctResources.add((merger.cell / sizeOfRow) + 1, column / numberOfChunks,
+                column % numberOfChunks);
+      }
+    }
+    // like StatisticsDBBaseImpl, the file ends with the last non-zero cell
+    long numberOfRows = (nextCell + sizeOfRow - 1) / sizeOfRow;
+    new StatisticsDBMetadata(Encoding.ROWS, numberOfChunks, StatisticsDB.DEFAULT_TRIPLE_POSITIONS,
+            Long.BYTES, numberOfRows > 0 ? 1 : 0, numberOfRows, checksum.getValue())
+                    .write(statisticsDir);
+    distinctResources.write(statisticsDir, checksum.getValue());
+  }
+
+  public void printMetrics(PrintStream out) {
+    out.println(String.format(
+            "run stage: %d occurrences in %d runs of at most %d cells, elapsed %d ms",
+            numberOfOccurrences, numberOfSortedRuns, cells.length,
+            runTime / 1_000_000));
+    out.println(String.format("merge stage: %d merges of at most %d runs, elapsed %d ms",
+            numberOfMerges, maxNumberOfMergedRuns, mergeTime / 1_000_000));
+  }
+
+  /**
+   * Writes (cell index, count) pairs in ascending order of the cell indices.
+   * The cell indices are stored as v-byte encoded gaps, the counts as v-byte
+   * encoded numbers. A count of 0 marks the end of the run.
+   */
+  private static class RunWriter implements AutoCloseable {
+
+    private final DataOutputStream output;
+
+    private long previousCell;
+
+    public RunWriter(File run) throws IOException {
+      output = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    }
+
+    public void write(long cell, long count) throws IOException {
+      NumberConversion.writeVByte(output, cell - previousCell);
+      NumberConversion.writeVByte(output, count);
+      previousCell = cell;
+    }
+
+    @Override
+    public void close() throws IOException {
+      NumberConversion.writeVByte(output, 0);
+      NumberConversion.writeVByte(output, 0);
+      output.close();
+    }
+
+  }
+
+  private static class RunReader implements AutoCloseable {
+
+    private final DataInputStream input;
+
+    private long cell;
+
+    private long count;
+
+    public RunReader(File run) throws IOException {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+    }
+
+    public boolean next() throws IOException {
+      cell += NumberConversion.readVByte(input);
+      count = NumberConversion.readVByte(input);
+      return count != 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+
+  }
+
+  /**
+   * Merges several runs with a binary min-heap of run readers ordered by their
+   * current cell index. The counts of a cell index that occurs in several runs
+   * are added up.
+   */
+  private static class RunMerger implements AutoCloseable {
+
+    private final RunReader[] readers;
+
+    private final RunReader[] heap;
+
+    private int heapSize;
+
+    private long cell;
+
+    private long count;
+
+    public RunMerger(List<File> runs) throws IOException {
+      readers = new RunReader[runs.size()];
+      heap = new RunReader[runs.size()];
+      try {
+        for (int i = 0; i < readers.length; i++) {
+          readers[i] = new RunReader(runs.get(i));
+          if (readers[i].next()) {
+            heap[heapSize++] = readers[i];
+          }
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+      for (int i = (heapSize / 2) - 1; i >= 0; i--) {
+        siftDown(i);
+      }
+    }
+
+    public boolean next() throws IOException {
+      if (heapSize == 0) {
+        return false;
+      }
+      cell = heap[0].cell;
+      count = 0;
+      while ((heapSize > 0) && (heap[0].cell == cell)) {
+        count += heap[0].count;
+        if (!heap[0].next()) {
+          heap[0] = heap[--heapSize];
+        }
+        siftDown(0);
+      }
+      return true;
+    }
+
+    private void siftDown(int index) {
+      while (true) {
+        int child = (index << 1) + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (((child + 1) < heapSize) && (heap[child + 1].cell < heap[child].cell)) {
+          child++;
+        }
+        if (heap[index].cell <= heap[child].cell) {
+          break;
+        }
+        RunReader reader = heap[index];
+        heap[index] = heap[child];
+        heap[child] = reader;
+        index = child;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RunReader reader : readers) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+
+  }
+
+}
@@ -1,14 +1,22 @@
 package rw2018.statistics.impl;
 
-import java.io.EOFException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
+import rw2018.statistics.StatisticsColumnVisitor;
 import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.StatisticsRowVisitor;
 import rw2018.statistics.TriplePosition;
-import rw2018.statistics.utilities.NumberConversion;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.impl.StatisticsDBMetadata.Layout;
+import rw2018.statistics.utilities.ChannelIO;
 
 /**
  * This is the baseline implementation. It assumes that all resource ids
@@ -16,17 +24,44 @@ import rw2018.statistics.utilities.NumberConversion;
  * missing numbers. It stores the table from {@link StatisticsDB} (without the
  * bold column and row headers) in a random access file. For each cell an 8-byte
  * long value is stored.
+ *
+ * The file is accessed with positional reads and writes of a
+ * {@link FileChannel} into reusable direct buffers of the calling thread.
+ * Hence, reading a cell or a whole row costs one system call and readers do not
+ * share a file pointer.
+ *
+ * With {@link Layout#ROW_AND_COLUMN_MAJOR}, a column-major copy of the table is
+ * written during {@link #close()}, so that
+ * {@link #forEachFrequency(int, TriplePosition, StatisticsColumnVisitor)} of a
+ * reopened and unmodified database reads one column sequentially.
  * 
  * @author Daniel Janke &lt;danijankATuni-koblenz.de&gt;
  *
  */
-public class StatisticsDBBaseImpl implements StatisticsDB {
+public class StatisticsDBBaseImpl extends AbstractStatisticsDB {
+
+  private final Layout layout;
 
   private int numberOfChunks;
 
   private File statisticsFile;
 
-  private RandomAccessFile statistics;
+  private FileChannel statistics;
+
+  private final ThreadLocal<ByteBuffer> cellBuffer = ThreadLocal
+          .withInitial(() -> ByteBuffer.allocateDirect(Long.BYTES));
+
+  private ThreadLocal<ByteBuffer> rowBuffer;
+
+  private StatisticsDBColumns columns;
+
+  public StatisticsDBBaseImpl() {
+    this(Layout.ROW_MAJOR);
+  }
+
+  public StatisticsDBBaseImpl(Layout layout) {
+    this.layout = layout;
+  }
 
   @Override
   public void setUp(File statisticsDir, int numberOfChunks) {
@@ -35,12 +70,27 @@ public class StatisticsDBBaseImpl implements StatisticsDB {
       statisticsDir.mkdirs();
     }
     statisticsFile = new File(statisticsDir.getAbsolutePath() + File.separator + "statistics");
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.ROWS, this);
+    int sizeOfRow = Long.BYTES * numberOfChunks * getTriplePositions().length;
+    rowBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(sizeOfRow));
     try {
-      statistics = new RandomAccessFile(statisticsFile, "rw");
+      statistics = FileChannel.open(statisticsFile.toPath(), StandardOpenOption.CREATE,
+              StandardOpenOption.READ, StandardOpenOption.WRITE);
     } catch (IOException e) {
       close();
       throw new RuntimeException(e);
     }
+    openSummaries(statisticsDir, StatisticsDBMarginals.load(statisticsDir, numberOfChunks,
+            getTriplePositions().length, false));
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.read(statisticsDir);
+    if ((layout == Layout.ROW_AND_COLUMN_MAJOR) && (metadata != null)
+            && (metadata.getLayout() == Layout.ROW_AND_COLUMN_MAJOR)) {
+      columns = StatisticsDBColumns.read(statisticsDir);
+    }
+  }
+
+  public Layout getLayout() {
+    return layout;
   }
 
   @Override
@@ -50,38 +100,52 @@ public class StatisticsDBBaseImpl implements StatisticsDB {
 
   @Override
   public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    addFrequency(getOffset(resourceId, chunkNumber, indexOfTriplePosition), 1);
+    addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber, 1);
+    columns = null;
+  }
+
+  /**
+   * Sorts the resource ids so that the file is traversed in ascending order and
+   * increments the cell of each distinct resource id only once.
+   */
+  @Override
+  public void incrementFrequencies(long[] resourceIds, int offset, int length, int chunkNumber,
+          TriplePosition triplePosition) {
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    columns = null;
+    forEachDistinctResource(Arrays.copyOfRange(resourceIds, offset, offset + length),
+            (resourceId, count) -> {
+              addFrequency(getOffset(resourceId, chunkNumber, indexOfTriplePosition), count);
+              addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber,
+                      count);
+            });
+  }
+
+  private long getOffset(long resourceId, int chunkNumber, int indexOfTriplePosition) {
     if (resourceId <= 0) {
       throw new IllegalArgumentException(
               "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
     }
+    long sizeOfRow = Long.BYTES * numberOfChunks * getTriplePositions().length;
+    return ((resourceId - 1) * sizeOfRow)
+            + (((indexOfTriplePosition * numberOfChunks) + chunkNumber) * Long.BYTES);
+  }
+
+  private void addFrequency(long offset, long delta) {
+    markModified();
     try {
-      long sizeOfRow = Long.BYTES * numberOfChunks * getTriplePositions().length;
-      int indexOfTriplePosition = -1;
-      for (int i = 0; i < getTriplePositions().length; i++) {
-        if (getTriplePositions()[i] == triplePosition) {
-          indexOfTriplePosition = i;
-        }
-      }
-      if (indexOfTriplePosition == -1) {
-        throw new IllegalArgumentException("The triple position " + triplePosition
-                + " is not supported. Supported triple positions are "
-                + Arrays.toString(getTriplePositions()) + ".");
-      }
-      long offset = ((resourceId - 1) * sizeOfRow)
-              + (((indexOfTriplePosition * numberOfChunks) + chunkNumber) * Long.BYTES);
-
-      statistics.seek(offset);
-      long value = 1;
-      try {
-        value = statistics.readLong();
-        value++;
-      } catch (EOFException e) {
-        // the resource did not exist in the file yet
-      }
-      if (statistics.getFilePointer() != offset) {
-        statistics.seek(offset);
+      ByteBuffer cell = cellBuffer.get();
+      cell.clear();
+      long value = delta;
+      // a shorter read means that the resource did not exist in the file yet
+      if (ChannelIO.readFully(statistics, cell, offset) == Long.BYTES) {
+        value += cell.getLong(0);
       }
-      statistics.writeLong(value);
+      cell.clear();
+      cell.putLong(0, value);
+      ChannelIO.writeFully(statistics, cell, offset);
     } catch (IOException e) {
       close();
       throw new RuntimeException(e);
@@ -95,29 +159,16 @@ public class StatisticsDBBaseImpl implements StatisticsDB {
     }
     try {
       long sizeOfRow = Long.BYTES * numberOfChunks * getTriplePositions().length;
-      int indexOfTriplePosition = -1;
-      int columnNumber = 0;
-      for (int i = 0; i < getTriplePositions().length; i++) {
-        if (getTriplePositions()[i] == triplePosition) {
-          indexOfTriplePosition = i;
-          break;
-        } else {
-          columnNumber += numberOfChunks;
-        }
-      }
-      if (indexOfTriplePosition == -1) {
-        throw new IllegalArgumentException("The triple position " + triplePosition
-                + " is not supported. Supported triple positions are "
-                + Arrays.toString(getTriplePositions()) + ".");
-      }
+      int columnNumber = getIndexOfTriplePosition(triplePosition) * numberOfChunks;
       long offset = ((resourceId - 1) * sizeOfRow) + ((columnNumber + chunkNumber) * Long.BYTES);
 
-      statistics.seek(offset);
-      try {
-        return statistics.readLong();
-      } catch (EOFException e) {
+      ByteBuffer cell = cellBuffer.get();
+      cell.clear();
+      if (ChannelIO.readFully(statistics, cell, offset) == Long.BYTES) {
+        return cell.getLong(0);
+      } else {
         // the resource did not exist in the file yet
-        if (statistics.length() >= ((resourceId - 1) * sizeOfRow)) {
+        if (statistics.size() >= ((resourceId - 1) * sizeOfRow)) {
           // the resource exists but does not have a value for the current
           // element
           return 0;
@@ -139,19 +190,18 @@ public class StatisticsDBBaseImpl implements StatisticsDB {
       return null;
     }
     try {
-      int sizeOfRow = Long.BYTES * numberOfChunks * getTriplePositions().length;
-      long offset = (resourceId - 1) * sizeOfRow;
+      ByteBuffer row = rowBuffer.get();
+      long offset = (resourceId - 1) * row.capacity();
 
-      byte[] row = new byte[sizeOfRow];
-      statistics.seek(offset);
-      int readBytes = statistics.read(row);
+      row.clear();
+      int readBytes = ChannelIO.readFully(statistics, row, offset);
       if (readBytes < 1) {
         return null;
       }
 
-      long[] result = new long[row.length / Long.BYTES];
-      for (int i = 0; i < result.length; i++) {
-        result[i] = NumberConversion.bytes2long(row, i * Long.BYTES);
+      long[] result = new long[row.capacity() / Long.BYTES];
+      for (int i = 0; i < (readBytes / Long.BYTES); i++) {
+        result[i] = row.getLong(i * Long.BYTES);
       }
       return result;
     } catch (IOException e) {
@@ -160,12 +210,73 @@ public class StatisticsDBBaseImpl implements StatisticsDB {
     }
   }
 
+  /**
+   * Reads the statistics file sequentially.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    int sizeOfRow = numberOfChunks * getTriplePositions().length;
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(statisticsFile), 1 << 16));) {
+      long[] frequencies = new long[sizeOfRow];
+      long numberOfCells = statistics.size() / Long.BYTES;
+      for (long firstCell = 0; firstCell < numberOfCells; firstCell += sizeOfRow) {
+        boolean isEmpty = true;
+        for (int i = 0; i < sizeOfRow; i++) {
+          frequencies[i] = (firstCell + i) < numberOfCells ? input.readLong() : 0;
+          isEmpty &= frequencies[i] == 0;
+        }
+        if (!isEmpty) {
+          visitor.visitRow((firstCell / sizeOfRow) + 1, frequencies);
+        }
+      }
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the column file written during the last {@link #close()} as long as
+   * the database has not been modified since. Otherwise, all rows of the
+   * statistics file are scanned as in
+   * {@link StatisticsDB#forEachFrequency(int, TriplePosition, StatisticsColumnVisitor)}.
+   */
+  @Override
+  public void forEachFrequency(int chunkNumber, TriplePosition triplePosition,
+          StatisticsColumnVisitor visitor) {
+    StatisticsDBColumns columns = this.columns;
+    if (columns != null) {
+      columns.forEachFrequency(
+              (getIndexOfTriplePosition(triplePosition) * numberOfChunks) + chunkNumber, visitor);
+    } else {
+      super.forEachFrequency(chunkNumber, triplePosition, visitor);
+    }
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return (resourceId - 1) < marginals.getNumberOfRows() ? resourceId - 1 : -1;
+  }
+
   @Override
   public void close() {
+    if (statistics == null) {
+      return;
+    }
+    StatisticsDBTopResources topResources = getOrBuildTopResources();
     try {
-      if (statistics != null) {
-        statistics.close();
+      long length = statistics.size();
+      long checksum = computeChecksum(statisticsFile, length);
+      StatisticsDBMetadata metadata = StatisticsDBMetadata.forRows(this, length, checksum,
+              layout);
+      if ((layout == Layout.ROW_AND_COLUMN_MAJOR) && (columns == null)) {
+        StatisticsDBColumns.write(statisticsFile.getParentFile(), this,
+                metadata.getMaxResourceId(), checksum);
       }
+      statistics.close();
+      statistics = null;
+      writeSummaries(metadata, topResources);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
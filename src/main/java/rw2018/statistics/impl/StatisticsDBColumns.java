@@ -0,0 +1,222 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import rw2018.statistics.StatisticsColumnVisitor;
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Layout;
+import rw2018.statistics.utilities.ChannelIO;
+
+/**
+ * The column-major copy of a table of {@link StatisticsDBMetadata.Encoding#ROWS}
+ * for databases of {@link Layout#ROW_AND_COLUMN_MAJOR}. The file
+ * <code>columns</code> starts with the checksum of the statistics file, the
+ * number of chunks, the number of triple positions and the number of rows.
+ * It is followed by one column of 8-byte cells per chunk and triple position
+ * in the order of {@link StatisticsDB#getFrequencies(long)}, each with one
+ * cell per resource id starting with id 1. Thus,
+ * {@link StatisticsDB#forEachFrequency(int, TriplePosition, StatisticsColumnVisitor)}
+ * reads only the cells of the requested column in sequential order instead of
+ * one cell per row of the whole statistics file.
+ *
+ * The file is written with one scan of {@link StatisticsDB#forEachRow} during
+ * {@link StatisticsDB#close()}. Each column is collected in its own buffer that
+ * is written to the position of the column when it is full.
+ *
+ */
+class StatisticsDBColumns {
+
+  public static final String FILE_NAME = "columns";
+
+  private static final int HEADER_SIZE = (2 * Long.BYTES) + (2 * Integer.BYTES);
+
+  /**
+   * The memory of all column buffers during {@link #write}.
+   */
+  private static final int WRITE_BUFFER_SIZE = 1 << 24;
+
+  private final File columnsFile;
+
+  private final long numberOfRows;
+
+  private StatisticsDBColumns(File columnsFile, long numberOfRows) {
+    this.columnsFile = columnsFile;
+    this.numberOfRows = numberOfRows;
+  }
+
+  /**
+   * Passes the non-zero cells of column <code>column</code> to
+   * <code>visitor</code>.
+   *
+   * @param column
+   *          <code>int</code> the index of the column in the order of
+   *          {@link StatisticsDB#getFrequencies(long)}
+   * @param visitor
+   */
+  public void forEachFrequency(int column, StatisticsColumnVisitor visitor) {
+    try (FileInputStream file = new FileInputStream(columnsFile);) {
+      file.getChannel().position(HEADER_SIZE + (column * numberOfRows * Long.BYTES));
+      DataInputStream input = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+      for (long row = 0; row < numberOfRows; row++) {
+        long frequency = input.readLong();
+        if (frequency != 0) {
+          visitor.visitFrequency(row + 1, frequency);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the columns of <code>statisticsDB</code> into the file
+   * <code>columns</code> in <code>statisticsDir</code>.
+   *
+   * @param statisticsDir
+   * @param statisticsDB
+   * @param numberOfRows
+   *          <code>long</code> the number of rows of the statistics file
+   * @param checksum
+   *          <code>long</code> the checksum of the statistics file the columns
+   *          belong to
+   */
+  public static void write(File statisticsDir, StatisticsDB statisticsDB, long numberOfRows,
+          long checksum) {
+    int numberOfChunks = statisticsDB.getNumberOfChunks();
+    int numberOfTriplePositions = statisticsDB.getTriplePositions().length;
+    int numberOfColumns = numberOfChunks * numberOfTriplePositions;
+    int cellsPerBuffer = Math.max(512, WRITE_BUFFER_SIZE / numberOfColumns / Long.BYTES);
+    try (FileChannel output = FileChannel.open(new File(statisticsDir, FILE_NAME).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);) {
+      ColumnWriter writer = new ColumnWriter(output, numberOfColumns, numberOfRows,
+              cellsPerBuffer);
+      statisticsDB.forEachRow(writer::writeRow);
+      writer.finish();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(checksum);
+      header.putInt(numberOfChunks);
+      header.putInt(numberOfTriplePositions);
+      header.putLong(numberOfRows);
+      header.flip();
+      // the header is written last so that an interrupted write is detected
+      ChannelIO.writeFully(output, header, 0);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param statisticsDir
+   * @return {@link StatisticsDBColumns} of the database in
+   *         <code>statisticsDir</code> or <code>null</code> if there is no
+   *         column file, if it does not belong to the current statistics
+   *         file or if the database was modified after it was written
+   */
+  public static StatisticsDBColumns read(File statisticsDir) {
+    File columnsFile = new File(statisticsDir, FILE_NAME);
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.readIfConsistent(statisticsDir);
+    if (!columnsFile.exists() || (metadata == null)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new FileInputStream(columnsFile));) {
+      if ((columnsFile.length() < HEADER_SIZE) || (input.readLong() != metadata.getChecksum())
+              || (input.readInt() != metadata.getNumberOfChunks())
+              || (input.readInt() != metadata.getTriplePositions().length)) {
+        return null;
+      }
+      long numberOfRows = input.readLong();
+      if (columnsFile.length() < (HEADER_SIZE + (numberOfRows * Long.BYTES
+              * metadata.getNumberOfChunks() * metadata.getTriplePositions().length))) {
+        return null;
+      }
+      return new StatisticsDBColumns(columnsFile, numberOfRows);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class ColumnWriter {
+
+    private final FileChannel output;
+
+    private final long numberOfRows;
+
+    private final ByteBuffer[] buffers;
+
+    /**
+     * The number of rows that are written or buffered.
+     */
+    private long nextRow;
+
+    /**
+     * The row of the first cell in the buffers.
+     */
+    private long firstBufferedRow;
+
+    public ColumnWriter(FileChannel output, int numberOfColumns, long numberOfRows,
+            int cellsPerBuffer) {
+      this.output = output;
+      this.numberOfRows = numberOfRows;
+      buffers = new ByteBuffer[numberOfColumns];
+      for (int i = 0; i < numberOfColumns; i++) {
+        buffers[i] = ByteBuffer.allocateDirect(cellsPerBuffer * Long.BYTES);
+      }
+    }
+
+    public void writeRow(long resourceId, long[] frequencies) {
+      // the rows without frequencies are skipped by forEachRow
+      while (nextRow < (resourceId - 1)) {
+        for (ByteBuffer buffer : buffers) {
+          buffer.putLong(0);
+        }
+        advance();
+      }
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i].putLong(frequencies[i]);
+      }
+      advance();
+    }
+
+    private void advance() {
+      nextRow++;
+      if (!buffers[0].hasRemaining()) {
+        flush();
+      }
+    }
+
+    public void finish() {
+      while (nextRow < numberOfRows) {
+        for (ByteBuffer buffer : buffers) {
+          buffer.putLong(0);
+        }
+        advance();
+      }
+      flush();
+    }
+
+    private void flush() {
+      try {
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i].flip();
+          long position = HEADER_SIZE + (((i * numberOfRows) + firstBufferedRow) * Long.BYTES);
+          ChannelIO.writeFully(output, buffers[i], position);
+          buffers[i].clear();
+        }
+        firstBufferedRow = nextRow;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+  }
+
+}
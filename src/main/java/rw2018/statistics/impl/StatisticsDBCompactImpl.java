@@ -0,0 +1,351 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.PagedLongArray;
+
+/**
+ * This implementation assumes consecutive resource ids starting with 1, like
+ * {@link StatisticsDBBaseImpl}, but stores each row with the smallest counter
+ * width that fits all of its counters. A row starts with 1-byte counters. If a
+ * counter exceeds the width of its row, the row is promoted to 2, 4 or 8 bytes
+ * per counter and moved to the end of the row heap. Thus, all counters of a row
+ * are always stored in one contiguous range of bytes.
+ *
+ * The row heap is kept in memory and written during {@link #close()} into the
+ * file <code>compact-statistics</code>, which contains the rows in ascending
+ * order of their resource ids without the space of promoted rows. The file
+ * <code>compact-index</code> stores one 8-byte descriptor per resource id that
+ * contains the offset of the row in <code>compact-statistics</code> and its
+ * counter width. Both files are read during {@link #setUp(File, int)}.
+ *
+ * Resources that did not occur but whose id is smaller than the largest
+ * occurred id have a frequency of 0. For larger ids, -1 is returned.
+ *
+ */
+public class StatisticsDBCompactImpl extends AbstractStatisticsDB {
+
+  static final String INDEX_FILE_NAME = "compact-index";
+
+  private static final int MIN_PAGE_SIZE = 1 << 20;
+
+  /**
+   * The lowest bits of a row descriptor store the width code. A row with code
+   * <code>c &gt; 0</code> has <code>2^(c-1)</code> bytes per counter. The code 0
+   * marks a resource without row.
+   */
+  private static final int WIDTH_CODE_BITS = 3;
+
+  private static final long WIDTH_CODE_MASK = (1 << WIDTH_CODE_BITS) - 1;
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private File dataFile;
+
+  private File indexFile;
+
+  private PagedLongArray rowDescriptors;
+
+  private List<byte[]> pages;
+
+  private int pageSize;
+
+  private long heapSize;
+
+  private long maxResourceId;
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    sizeOfRow = numberOfChunks * getTriplePositions().length;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    dataFile = new File(statisticsDir.getAbsolutePath() + File.separator + "compact-statistics");
+    indexFile = new File(statisticsDir.getAbsolutePath() + File.separator + INDEX_FILE_NAME);
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.COMPACT, this);
+    rowDescriptors = new PagedLongArray();
+    pages = new ArrayList<>();
+    pageSize = Math.max(MIN_PAGE_SIZE, sizeOfRow * Long.BYTES);
+    heapSize = 0;
+    maxResourceId = 0;
+    StatisticsDBMarginals marginals = new StatisticsDBMarginals(numberOfChunks,
+            getTriplePositions().length);
+    if (dataFile.exists() && indexFile.exists()) {
+      load(marginals);
+    }
+    openSummaries(statisticsDir, marginals);
+  }
+
+  private void load(StatisticsDBMarginals marginals) {
+    try (DataInputStream index = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(indexFile)));
+            DataInputStream data = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(dataFile)));) {
+      long numberOfResources = indexFile.length() / Long.BYTES;
+      for (long i = 0; i < numberOfResources; i++) {
+        int widthCode = getWidthCodeOfDescriptor(index.readLong());
+        if (widthCode != 0) {
+          int width = getWidth(widthCode);
+          long offset = allocate(width);
+          data.readFully(getPage(offset), getOffsetInPage(offset), width * sizeOfRow);
+          rowDescriptors.set(i, createDescriptor(offset, widthCode));
+          byte[] page = getPage(offset);
+          int position = getOffsetInPage(offset);
+          for (int column = 0; column < sizeOfRow; column++) {
+            marginals.add(i, column / numberOfChunks, column % numberOfChunks,
+                    readCounter(page, position + (column * width), width));
+          }
+        }
+      }
+      maxResourceId = numberOfResources;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  private int getColumn(int chunkNumber, TriplePosition triplePosition) {
+    return (getIndexOfTriplePosition(triplePosition) * numberOfChunks) + chunkNumber;
+  }
+
+  static int getWidth(int widthCode) {
+    return 1 << (widthCode - 1);
+  }
+
+  private static int getWidthCode(long value) {
+    int numberOfBytes = ((Long.SIZE - Long.numberOfLeadingZeros(value)) + Byte.SIZE - 1)
+            / Byte.SIZE;
+    int widthCode = 1;
+    while (getWidth(widthCode) < numberOfBytes) {
+      widthCode++;
+    }
+    return widthCode;
+  }
+
+  static int getWidthCodeOfDescriptor(long descriptor) {
+    return (int) (descriptor & WIDTH_CODE_MASK);
+  }
+
+  private static long createDescriptor(long offset, int widthCode) {
+    return (offset << WIDTH_CODE_BITS) | widthCode;
+  }
+
+  /**
+   * Reserves the space of a row with the given counter width on the row heap.
+   * Rows never span two pages.
+   *
+   * @return <code>long</code> the offset of the row on the heap
+   */
+  private long allocate(int width) {
+    int rowLength = width * sizeOfRow;
+    if ((getOffsetInPage(heapSize) + rowLength) > pageSize) {
+      heapSize = ((heapSize / pageSize) + 1) * pageSize;
+    }
+    long offset = heapSize;
+    heapSize += rowLength;
+    while (pages.size() <= (heapSize - 1) / pageSize) {
+      pages.add(new byte[pageSize]);
+    }
+    return offset;
+  }
+
+  private byte[] getPage(long offset) {
+    return pages.get((int) (offset / pageSize));
+  }
+
+  private int getOffsetInPage(long offset) {
+    return (int) (offset % pageSize);
+  }
+
+  private static long readCounter(byte[] page, int position, int width) {
+    long value = 0;
+    for (int i = 0; i < width; i++) {
+      value = (value << Byte.SIZE) | (page[position + i] & 0xff);
+    }
+    return value;
+  }
+
+  private static void writeCounter(byte[] page, int position, int width, long value) {
+    for (int i = width - 1; i >= 0; i--) {
+      page[position + i] = (byte) value;
+      value >>>= Byte.SIZE;
+    }
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    long descriptor = rowDescriptors.get(resourceId - 1);
+    if (descriptor == 0) {
+      descriptor = createDescriptor(allocate(1), 1);
+      rowDescriptors.set(resourceId - 1, descriptor);
+    }
+    long offset = descriptor >>> WIDTH_CODE_BITS;
+    int widthCode = (int) (descriptor & WIDTH_CODE_MASK);
+    int width = getWidth(widthCode);
+    byte[] page = getPage(offset);
+    int position = getOffsetInPage(offset) + (column * width);
+    long value = readCounter(page, position, width) + 1;
+    int requiredWidthCode = getWidthCode(value);
+    if (requiredWidthCode > widthCode) {
+      offset = promote(resourceId, offset, widthCode, requiredWidthCode);
+      width = getWidth(requiredWidthCode);
+      page = getPage(offset);
+      position = getOffsetInPage(offset) + (column * width);
+    }
+    writeCounter(page, position, width, value);
+    addToSummaries(resourceId, resourceId - 1, column / numberOfChunks, chunkNumber, 1);
+    maxResourceId = Math.max(maxResourceId, resourceId);
+  }
+
+  /**
+   * Copies the row of resource <code>resourceId</code> into a new row with a
+   * wider counter width.
+   *
+   * @return <code>long</code> the offset of the new row
+   */
+  private long promote(long resourceId, long offset, int widthCode, int newWidthCode) {
+    int width = getWidth(widthCode);
+    int newWidth = getWidth(newWidthCode);
+    long newOffset = allocate(newWidth);
+    byte[] page = getPage(offset);
+    int position = getOffsetInPage(offset);
+    byte[] newPage = getPage(newOffset);
+    int newPosition = getOffsetInPage(newOffset);
+    for (int i = 0; i < sizeOfRow; i++) {
+      writeCounter(newPage, newPosition + (i * newWidth), newWidth,
+              readCounter(page, position + (i * width), width));
+    }
+    rowDescriptors.set(resourceId - 1, createDescriptor(newOffset, newWidthCode));
+    return newOffset;
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    if (resourceId > maxResourceId) {
+      return -1;
+    }
+    long descriptor = rowDescriptors.get(resourceId - 1);
+    if (descriptor == 0) {
+      return 0;
+    }
+    long offset = descriptor >>> WIDTH_CODE_BITS;
+    int width = getWidth((int) (descriptor & WIDTH_CODE_MASK));
+    return readCounter(getPage(offset), getOffsetInPage(offset) + (column * width), width);
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if ((resourceId <= 0) || (resourceId > maxResourceId)) {
+      return null;
+    }
+    long[] result = new long[sizeOfRow];
+    long descriptor = rowDescriptors.get(resourceId - 1);
+    if (descriptor != 0) {
+      long offset = descriptor >>> WIDTH_CODE_BITS;
+      int width = getWidth((int) (descriptor & WIDTH_CODE_MASK));
+      byte[] page = getPage(offset);
+      int position = getOffsetInPage(offset);
+      for (int i = 0; i < result.length; i++) {
+        result[i] = readCounter(page, position + (i * width), width);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return resourceId <= maxResourceId ? resourceId - 1 : -1;
+  }
+
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    long[] frequencies = new long[sizeOfRow];
+    for (long i = 0; i < maxResourceId; i++) {
+      long descriptor = rowDescriptors.get(i);
+      if (descriptor == 0) {
+        continue;
+      }
+      long offset = descriptor >>> WIDTH_CODE_BITS;
+      int width = getWidth((int) (descriptor & WIDTH_CODE_MASK));
+      byte[] page = getPage(offset);
+      int position = getOffsetInPage(offset);
+      boolean isEmpty = true;
+      for (int j = 0; j < sizeOfRow; j++) {
+        frequencies[j] = readCounter(page, position + (j * width), width);
+        isEmpty &= frequencies[j] == 0;
+      }
+      if (!isEmpty) {
+        visitor.visitRow(i + 1, frequencies);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (rowDescriptors == null) {
+      return;
+    }
+    StatisticsDBTopResources topResources = getOrBuildTopResources();
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream index = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(new FileOutputStream(dataFile), checksum), 1 << 16));) {
+      long dataOffset = 0;
+      for (long i = 0; i < maxResourceId; i++) {
+        long descriptor = rowDescriptors.get(i);
+        if (descriptor == 0) {
+          index.writeLong(0);
+          continue;
+        }
+        long offset = descriptor >>> WIDTH_CODE_BITS;
+        int widthCode = (int) (descriptor & WIDTH_CODE_MASK);
+        int rowLength = getWidth(widthCode) * sizeOfRow;
+        index.writeLong(createDescriptor(dataOffset, widthCode));
+        data.write(getPage(offset), getOffsetInPage(offset), rowLength);
+        dataOffset += rowLength;
+      }
+      data.flush();
+      writeSummaries(new StatisticsDBMetadata(Encoding.COMPACT, numberOfChunks,
+              getTriplePositions(), 0, maxResourceId > 0 ? 1 : 0, maxResourceId,
+              checksum.getValue()), topResources);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      rowDescriptors = null;
+      pages = null;
+      marginals = null;
+    }
+  }
+
+}
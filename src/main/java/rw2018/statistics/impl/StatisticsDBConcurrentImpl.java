@@ -0,0 +1,188 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.PagedAtomicLongArray;
+
+/**
+ * This is a thread-safe variant of {@link StatisticsDBInMemoryImpl}. The table
+ * is stored in pages of atomic long arrays so that
+ * {@link #incrementFrequency(long, int, TriplePosition)} is lock-free and can
+ * be called from many threads concurrently. Only the allocation of a new page
+ * of the table is synchronized. The file written during {@link #close()} has
+ * the same content as the file written by {@link StatisticsDBBaseImpl} for the
+ * same input. {@link #setUp(File, int)} and {@link #close()} must not be called
+ * concurrently with other methods.
+ *
+ */
+public class StatisticsDBConcurrentImpl extends AbstractStatisticsDB {
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private File statisticsFile;
+
+  private PagedAtomicLongArray statistics;
+
+  /**
+   * The length in bytes the statistics file would have if it was written by
+   * {@link StatisticsDBBaseImpl}.
+   */
+  private LongAccumulator length;
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    sizeOfRow = numberOfChunks * getTriplePositions().length;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    statisticsFile = new File(statisticsDir.getAbsolutePath() + File.separator + "statistics");
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.ROWS, this);
+    statistics = new PagedAtomicLongArray();
+    StatisticsDBMarginals marginals = StatisticsDBMarginals.createConcurrent(numberOfChunks,
+            getTriplePositions().length);
+    length = new LongAccumulator(Math::max, 0);
+    if (statisticsFile.exists()) {
+      try (DataInputStream input = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(statisticsFile)));) {
+        long numberOfCells = statisticsFile.length() / Long.BYTES;
+        for (long i = 0; i < numberOfCells; i++) {
+          long frequency = input.readLong();
+          statistics.set(i, frequency);
+          if (frequency != 0) {
+            int column = (int) (i % sizeOfRow);
+            marginals.add(i / sizeOfRow, column / numberOfChunks, column % numberOfChunks,
+                    frequency);
+          }
+        }
+        length.accumulate(numberOfCells * Long.BYTES);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    openSummaries(statisticsDir, marginals);
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  private long getIndex(long resourceId, int chunkNumber, int indexOfTriplePosition) {
+    return ((resourceId - 1) * sizeOfRow) + (indexOfTriplePosition * numberOfChunks)
+            + chunkNumber;
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    long index = getIndex(resourceId, chunkNumber, indexOfTriplePosition);
+    statistics.add(index, 1);
+    addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber, 1);
+    length.accumulate((index + 1) * Long.BYTES);
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    long index = getIndex(resourceId, chunkNumber, getIndexOfTriplePosition(triplePosition));
+    long length = this.length.get();
+    if (((index + 1) * Long.BYTES) <= length) {
+      return statistics.get(index);
+    } else if (length >= ((resourceId - 1) * sizeOfRow * Long.BYTES)) {
+      // the resource exists but does not have a value for the current element
+      return 0;
+    } else {
+      // the resource does not exist
+      return -1;
+    }
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    long firstIndex = (resourceId - 1) * sizeOfRow;
+    if ((firstIndex * Long.BYTES) >= length.get()) {
+      return null;
+    }
+    long[] result = new long[sizeOfRow];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = statistics.get(firstIndex + i);
+    }
+    return result;
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return ((resourceId - 1) * sizeOfRow * Long.BYTES) < length.get() ? resourceId - 1 : -1;
+  }
+
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    long[] frequencies = new long[sizeOfRow];
+    long numberOfCells = length.get() / Long.BYTES;
+    for (long firstCell = 0; firstCell < numberOfCells; firstCell += sizeOfRow) {
+      boolean isEmpty = true;
+      for (int i = 0; i < sizeOfRow; i++) {
+        frequencies[i] = (firstCell + i) < numberOfCells ? statistics.get(firstCell + i) : 0;
+        isEmpty &= frequencies[i] == 0;
+      }
+      if (!isEmpty) {
+        visitor.visitRow((firstCell / sizeOfRow) + 1, frequencies);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (statistics == null) {
+      return;
+    }
+    StatisticsDBTopResources topResources = getOrBuildTopResources();
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(statisticsFile), checksum), 1 << 16));) {
+      long numberOfCells = length.get() / Long.BYTES;
+      for (long i = 0; i < numberOfCells; i++) {
+        output.writeLong(statistics.get(i));
+      }
+      output.flush();
+      writeSummaries(StatisticsDBMetadata.forRows(this, numberOfCells * Long.BYTES,
+              checksum.getValue()), topResources);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      statistics = null;
+      marginals = null;
+    }
+  }
+
+}
@@ -0,0 +1,362 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.HyperLogLog;
+
+/**
+ * An approximate implementation that keeps one Count-Min sketch (G. Cormode
+ * and S. Muthukrishnan, "An improved data stream summary: the count-min sketch
+ * and its applications", 2005) per chunk and triple position. Each sketch
+ * consists of <code>depth</code> rows of <code>width</code> counters. An
+ * occurrence of a resource increments one counter per row, which is selected
+ * by a row specific hash of the resource id. The frequency of a resource is
+ * estimated by the minimum of its counters. Therefore, the memory consumption
+ * only depends on the width, the depth and the number of chunks but not on the
+ * number of resources.
+ *
+ * The estimates are never smaller than the exact frequencies. Let
+ * <code>N</code> be the size of the chunk at the triple position as returned
+ * by {@link #getChunkSize(int, TriplePosition)}. With a probability of at
+ * least <code>1 - e^-depth</code>, an estimate exceeds the exact frequency by
+ * at most <code>e / width * N</code>, see
+ * {@link #getErrorBound(int, TriplePosition)}. {@link #forErrorBounds(double,
+ * double)} chooses the width and depth for a given error and probability.
+ *
+ * Since the sketch cannot tell whether a resource occurred, all resource ids
+ * up to the largest incremented id are reported as existing. Sketches with the
+ * same width, depth and number of chunks can be merged by
+ * {@link #merge(StatisticsDBCountMinImpl)}. The sketches are persisted in the
+ * file <code>countmin-statistics</code> during {@link #close()}.
+ *
+ */
+public class StatisticsDBCountMinImpl implements StatisticsDB {
+
+  public static final int DEFAULT_WIDTH = 1 << 14;
+
+  public static final int DEFAULT_DEPTH = 4;
+
+  private final int width;
+
+  private final int depth;
+
+  private final long[] seeds;
+
+  private int numberOfChunks;
+
+  private File statisticsFile;
+
+  /**
+   * One sketch per chunk and triple position in the order of
+   * {@link #getFrequencies(long)}. Row <code>r</code> of a sketch is stored at
+   * the indices <code>r * width</code> to <code>(r + 1) * width - 1</code>.
+   */
+  private long[][] sketches;
+
+  private long[] chunkSizes;
+
+  private long maxResourceId;
+
+  private StatisticsDBDistinctResources distinctResources;
+
+  public StatisticsDBCountMinImpl() {
+    this(DEFAULT_WIDTH, DEFAULT_DEPTH);
+  }
+
+  /**
+   * @param width
+   *          <code>int</code> the number of counters per row, must be a power
+   *          of two
+   * @param depth
+   *          <code>int</code> the number of rows
+   */
+  public StatisticsDBCountMinImpl(int width, int depth) {
+    if ((width <= 0) || (Integer.bitCount(width) != 1)) {
+      throw new IllegalArgumentException("The width " + width + " is not a power of two.");
+    }
+    if (depth <= 0) {
+      throw new IllegalArgumentException("The depth " + depth + " must be > 0.");
+    }
+    this.width = width;
+    this.depth = depth;
+    seeds = new long[depth];
+    for (int i = 0; i < depth; i++) {
+      seeds[i] = 0x9e3779b97f4a7c15l * (i + 1);
+    }
+  }
+
+  /**
+   * @param epsilon
+   *          <code>double</code> the maximal overestimation relative to the
+   *          chunk size
+   * @param delta
+   *          <code>double</code> the probability that an estimate exceeds the
+   *          maximal overestimation
+   * @return {@link StatisticsDBCountMinImpl} with the smallest width and depth
+   *         that guarantee the error bounds
+   */
+  public static StatisticsDBCountMinImpl forErrorBounds(double epsilon, double delta) {
+    if ((epsilon <= 0) || (delta <= 0) || (delta >= 1)) {
+      throw new IllegalArgumentException(
+              "The error bounds require epsilon > 0 and 0 < delta < 1.");
+    }
+    long minimalWidth = (long) Math.ceil(Math.E / epsilon);
+    if (minimalWidth > (1 << 30)) {
+      throw new IllegalArgumentException("The error " + epsilon + " is too small.");
+    }
+    int width = Integer.highestOneBit((int) Math.max(1, minimalWidth - 1)) << 1;
+    int depth = (int) Math.ceil(Math.log(1 / delta));
+    return new StatisticsDBCountMinImpl(width, Math.max(1, depth));
+  }
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    statisticsFile = new File(statisticsDir, Encoding.COUNT_MIN.getFileName());
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.COUNT_MIN, this);
+    sketches = new long[numberOfChunks * getTriplePositions().length][width * depth];
+    chunkSizes = new long[sketches.length];
+    maxResourceId = 0;
+    if (statisticsFile.exists()) {
+      load();
+    }
+    distinctResources = StatisticsDBDistinctResources.read(statisticsDir, numberOfChunks,
+            getTriplePositions().length);
+    if (distinctResources == null) {
+      distinctResources = new StatisticsDBDistinctResources(numberOfChunks,
+              getTriplePositions().length);
+    }
+  }
+
+  private void load() {
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(statisticsFile), 1 << 16));) {
+      int storedWidth = input.readInt();
+      int storedDepth = input.readInt();
+      if ((storedWidth != width) || (storedDepth != depth)) {
+        throw new IllegalArgumentException("The sketches in " + statisticsFile
+                + " have width " + storedWidth + " and depth " + storedDepth + " but width "
+                + width + " and depth " + depth + " are requested.");
+      }
+      maxResourceId = input.readLong();
+      for (int i = 0; i < sketches.length; i++) {
+        chunkSizes[i] = input.readLong();
+        long[] sketch = sketches[i];
+        for (int j = 0; j < sketch.length; j++) {
+          sketch[j] = input.readLong();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return <code>long</code> the number of bytes occupied by the counters
+   */
+  public long getMemoryUsage() {
+    return (long) sketches.length * width * depth * Long.BYTES;
+  }
+
+  private int getColumn(int chunkNumber, TriplePosition triplePosition) {
+    return (TriplePosition.indexOf(getTriplePositions(), triplePosition) * numberOfChunks)
+            + chunkNumber;
+  }
+
+  private int getIndex(int row, long resourceId) {
+    // finalizer of MurmurHash3
+    long hash = resourceId ^ seeds[row];
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdl;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53l;
+    hash ^= hash >>> 33;
+    return (row * width) + (int) (hash & (width - 1));
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    long[] sketch = sketches[column];
+    for (int row = 0; row < depth; row++) {
+      sketch[getIndex(row, resourceId)]++;
+    }
+    chunkSizes[column]++;
+    distinctResources.add(resourceId, column / numberOfChunks, chunkNumber);
+    maxResourceId = Math.max(maxResourceId, resourceId);
+  }
+
+  private long estimate(long[] sketch, long resourceId) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, sketch[getIndex(row, resourceId)]);
+    }
+    return estimate;
+  }
+
+  /**
+   * @return <code>long</code> an estimate that is never smaller than the exact
+   *         frequency or <code>-1</code> if <code>resourceId</code> is larger
+   *         than the largest incremented resource id
+   */
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    if (resourceId > maxResourceId) {
+      return -1;
+    }
+    return estimate(sketches[column], resourceId);
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if ((resourceId <= 0) || (resourceId > maxResourceId)) {
+      return null;
+    }
+    long[] result = new long[sketches.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = estimate(sketches[i], resourceId);
+    }
+    return result;
+  }
+
+  /**
+   * The chunk sizes are counted exactly.
+   */
+  @Override
+  public long getChunkSize(int chunkNumber, TriplePosition triplePosition) {
+    return chunkSizes[getColumn(chunkNumber, triplePosition)];
+  }
+
+  /**
+   * Estimated from the {@link HyperLogLog} sketch that is maintained during the
+   * updates, since the Count-Min sketches cannot enumerate the resources.
+   */
+  @Override
+  public long getNumberOfDistinctResources(int chunkNumber, TriplePosition triplePosition) {
+    int column = getColumn(chunkNumber, triplePosition);
+    return distinctResources.getNumberOfDistinctResources(column / numberOfChunks, chunkNumber);
+  }
+
+  @Override
+  public long getNumberOfDistinctResources(TriplePosition triplePosition) {
+    int column = getColumn(0, triplePosition);
+    return distinctResources.getNumberOfDistinctResources(column / numberOfChunks);
+  }
+
+  @Override
+  public HyperLogLog getDistinctResourceSketch(int chunkNumber, TriplePosition triplePosition) {
+    int column = getColumn(chunkNumber, triplePosition);
+    return distinctResources.getSketch(column / numberOfChunks, chunkNumber);
+  }
+
+  /**
+   * @return <code>long</code> the maximal overestimation of
+   *         {@link #getFrequency(long, int, TriplePosition)} in chunk
+   *         <code>chunkNumber</code> at the triple position
+   *         <code>triplePosition</code> that holds with a probability of at
+   *         least <code>1 - e^-depth</code>
+   */
+  public long getErrorBound(int chunkNumber, TriplePosition triplePosition) {
+    return (long) Math.ceil((Math.E / width) * getChunkSize(chunkNumber, triplePosition));
+  }
+
+  /**
+   * Adds the counters of <code>other</code> to the counters of this database
+   * and merges its sketches of the distinct resources. Afterwards, this
+   * database estimates the frequencies and distinct resources of both inputs.
+   *
+   * @param other
+   *          {@link StatisticsDBCountMinImpl} with the same width, depth,
+   *          number of chunks and triple positions
+   */
+  public void merge(StatisticsDBCountMinImpl other) {
+    if ((other.width != width) || (other.depth != depth)
+            || (other.numberOfChunks != numberOfChunks)
+            || !Arrays.equals(other.getTriplePositions(), getTriplePositions())) {
+      throw new IllegalArgumentException(
+              "Only sketches with the same width, depth and chunks can be merged.");
+    }
+    for (int i = 0; i < sketches.length; i++) {
+      long[] sketch = sketches[i];
+      long[] otherSketch = other.sketches[i];
+      for (int j = 0; j < sketch.length; j++) {
+        sketch[j] += otherSketch[j];
+      }
+      chunkSizes[i] += other.chunkSizes[i];
+    }
+    maxResourceId = Math.max(maxResourceId, other.maxResourceId);
+    distinctResources.merge(other.distinctResources);
+  }
+
+  @Override
+  public void close() {
+    if (sketches == null) {
+      return;
+    }
+    // the sketch file is only rewritten here, so the marker covers an
+    // interruption before the metadata and the sketches are written
+    StatisticsDBMetadata.markModified(statisticsFile.getParentFile());
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(statisticsFile), checksum), 1 << 16));) {
+      output.writeInt(width);
+      output.writeInt(depth);
+      output.writeLong(maxResourceId);
+      for (int i = 0; i < sketches.length; i++) {
+        output.writeLong(chunkSizes[i]);
+        for (long counter : sketches[i]) {
+          output.writeLong(counter);
+        }
+      }
+      output.flush();
+      new StatisticsDBMetadata(Encoding.COUNT_MIN, numberOfChunks, getTriplePositions(),
+              Long.BYTES, maxResourceId > 0 ? 1 : 0, maxResourceId, checksum.getValue())
+                      .write(statisticsFile.getParentFile());
+      distinctResources.write(statisticsFile.getParentFile(), checksum.getValue());
+      StatisticsDBMetadata.clearModified(statisticsFile.getParentFile());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      sketches = null;
+      chunkSizes = null;
+    }
+  }
+
+}
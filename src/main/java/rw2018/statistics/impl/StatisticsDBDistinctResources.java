@@ -0,0 +1,184 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.utilities.HyperLogLog;
+
+/**
+ * Maintains one {@link HyperLogLog} sketch of the resource ids per chunk and
+ * triple position while the database is updated. The number of distinct
+ * resources in a chunk is estimated from its sketch and the number of distinct
+ * resources in several chunks from the merged sketches of the chunks. The
+ * resource ids rather than internal row numbers are hashed, so that the
+ * sketches of different databases can be merged as well.
+ *
+ * The sketches are stored in the file <code>distinct-resources</code>
+ * together with the checksum of the statistics file they belong to. If the
+ * checksum does not match the metadata, the sketches are recomputed with one
+ * scan of {@link StatisticsDB#forEachRow}.
+ *
+ */
+class StatisticsDBDistinctResources {
+
+  public static final String FILE_NAME = "distinct-resources";
+
+  private final int numberOfChunks;
+
+  private final HyperLogLog[] sketches;
+
+  public StatisticsDBDistinctResources(int numberOfChunks, int numberOfTriplePositions) {
+    this(numberOfChunks, new HyperLogLog[numberOfTriplePositions * numberOfChunks]);
+    for (int i = 0; i < sketches.length; i++) {
+      sketches[i] = new HyperLogLog();
+    }
+  }
+
+  private StatisticsDBDistinctResources(int numberOfChunks, HyperLogLog[] sketches) {
+    this.numberOfChunks = numberOfChunks;
+    this.sketches = sketches;
+  }
+
+  public void add(long resourceId, int indexOfTriplePosition, int chunkNumber) {
+    sketches[(indexOfTriplePosition * numberOfChunks) + chunkNumber].add(resourceId);
+  }
+
+  /**
+   * Adds the resource to the sketches of all non-zero cells of its row, which
+   * is ordered like the result of {@link StatisticsDB#getFrequencies(long)}.
+   */
+  public void addRow(long resourceId, long[] frequencies) {
+    for (int i = 0; i < frequencies.length; i++) {
+      if (frequencies[i] != 0) {
+        sketches[i].add(resourceId);
+      }
+    }
+  }
+
+  /**
+   * Merges the sketch of each chunk and triple position of <code>other</code>
+   * into the corresponding sketch of this instance. Afterwards, the sketches
+   * estimate the distinct resources of both databases.
+   *
+   * @param other
+   *          {@link StatisticsDBDistinctResources} with the same number of
+   *          chunks and triple positions
+   */
+  public void merge(StatisticsDBDistinctResources other) {
+    if ((other.numberOfChunks != numberOfChunks) || (other.sketches.length != sketches.length)) {
+      throw new IllegalArgumentException(
+              "Only sketches of the same chunks and triple positions can be merged.");
+    }
+    for (int i = 0; i < sketches.length; i++) {
+      sketches[i].merge(other.sketches[i]);
+    }
+  }
+
+  public long getNumberOfDistinctResources(int indexOfTriplePosition, int chunkNumber) {
+    return sketches[(indexOfTriplePosition * numberOfChunks) + chunkNumber].estimate();
+  }
+
+  /**
+   * @return <code>long</code> the estimated number of distinct resources at
+   *         the triple position in all chunks together
+   */
+  public long getNumberOfDistinctResources(int indexOfTriplePosition) {
+    HyperLogLog union = new HyperLogLog();
+    for (int chunkNumber = 0; chunkNumber < numberOfChunks; chunkNumber++) {
+      union.merge(sketches[(indexOfTriplePosition * numberOfChunks) + chunkNumber]);
+    }
+    return union.estimate();
+  }
+
+  /**
+   * @return {@link HyperLogLog} a copy of the sketch of the chunk at the triple
+   *         position
+   */
+  public HyperLogLog getSketch(int indexOfTriplePosition, int chunkNumber) {
+    return sketches[(indexOfTriplePosition * numberOfChunks) + chunkNumber].copy();
+  }
+
+  /**
+   * @param statisticsDir
+   * @param checksum
+   *          <code>long</code> the checksum of the statistics file these
+   *          sketches belong to
+   */
+  public void write(File statisticsDir, long checksum) {
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(new File(statisticsDir, FILE_NAME)), 1 << 16));) {
+      output.writeLong(checksum);
+      output.writeInt(numberOfChunks);
+      output.writeInt(sketches.length);
+      for (HyperLogLog sketch : sketches) {
+        sketch.write(output);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param statisticsDir
+   * @param numberOfChunks
+   * @param numberOfTriplePositions
+   * @return {@link StatisticsDBDistinctResources} of the database in
+   *         <code>statisticsDir</code> or <code>null</code> if there are no
+   *         sketches, if they do not belong to the current statistics file or
+   *         if the database was modified after they were written
+   */
+  public static StatisticsDBDistinctResources read(File statisticsDir, int numberOfChunks,
+          int numberOfTriplePositions) {
+    File sketchFile = new File(statisticsDir, FILE_NAME);
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.readIfConsistent(statisticsDir);
+    if (!sketchFile.exists() || (metadata == null)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(sketchFile), 1 << 16));) {
+      if ((input.readLong() != metadata.getChecksum()) || (input.readInt() != numberOfChunks)
+              || (input.readInt() != (numberOfTriplePositions * numberOfChunks))) {
+        return null;
+      }
+      HyperLogLog[] sketches = new HyperLogLog[numberOfTriplePositions * numberOfChunks];
+      for (int i = 0; i < sketches.length; i++) {
+        sketches[i] = HyperLogLog.read(input);
+      }
+      return new StatisticsDBDistinctResources(numberOfChunks, sketches);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the sketches of <code>statisticsDB</code>, which has to be set up
+   * with <code>statisticsDir</code>. If the stored sketches are missing or
+   * outdated, they are recomputed from the rows of the database.
+   *
+   * @param statisticsDir
+   * @param statisticsDB
+   * @return {@link StatisticsDBDistinctResources}
+   */
+  public static StatisticsDBDistinctResources load(File statisticsDir,
+          StatisticsDB statisticsDB) {
+    int numberOfChunks = statisticsDB.getNumberOfChunks();
+    TriplePosition[] triplePositions = statisticsDB.getTriplePositions();
+    StatisticsDBDistinctResources distinctResources = read(statisticsDir, numberOfChunks,
+            triplePositions.length);
+    if (distinctResources == null) {
+      distinctResources = new StatisticsDBDistinctResources(numberOfChunks,
+              triplePositions.length);
+      statisticsDB.forEachRow(distinctResources::addRow);
+    }
+    return distinctResources;
+  }
+
+}
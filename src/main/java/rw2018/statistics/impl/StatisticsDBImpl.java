@@ -1,109 +1,210 @@
 package rw2018.statistics.impl;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.StatisticsRowVisitor;
 import rw2018.statistics.TriplePosition;
+import rw2018.statistics.utilities.ChannelIO;
 
 /**
  * This is the class that will be executed during the evaluation!!
- * 
- * TODO implement this class
+ *
+ * The frequencies of each triple position are stored in their own positional
+ * file with one row of 8-byte cells per resource id. Only resource ids below
+ * <code>1 &lt;&lt; 7</code> are stored.
  */
 public class StatisticsDBImpl extends StatisticsDBBaseImpl {
 
+  /**
+   * {@link #getFile(long, TriplePosition)} only maps resource ids below
+   * <code>1 &lt;&lt; 7</code>.
+   */
+  private static final long MAX_RESOURCE_ID = (1 << 7) - 1;
 
-  private RandomAccessFile[] positional = {};
+  private FileChannel[] positional = {};
   private int positionalBytes[] = {1, 1, 1};
   private long lastId[] = {0, 0, 0};
   private File dir;
 
+  private final ThreadLocal<ByteBuffer> cellBuffer = ThreadLocal
+          .withInitial(() -> ByteBuffer.allocateDirect(Long.BYTES));
+
+  private int numberOfChunks;
+
   @Override
   public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
     dir = statisticsDir;
     statisticsDir.mkdirs();
     try {
-      positional = new RandomAccessFile[]{null, null, null};
-      positional[0] = new RandomAccessFile(new File(statisticsDir, "0.1"), "rw");
-      positional[1] = new RandomAccessFile(new File(statisticsDir, "1.1"), "rw");
-      positional[2] = new RandomAccessFile(new File(statisticsDir, "2.1"), "rw");
-
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
+      positional = new FileChannel[]{null, null, null};
+      positional[0] = openFile(0, 1);
+      positional[1] = openFile(1, 1);
+      positional[2] = openFile(2, 1);
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException(e);
     }
+    // the summaries are not persisted, so they are recomputed from the rows
+    StatisticsDBMarginals marginals = new StatisticsDBMarginals(numberOfChunks,
+            getTriplePositions().length);
+    forEachRow((resourceId, frequencies) -> marginals.addRow(resourceId - 1, frequencies));
+    openSummaries(statisticsDir, marginals);
+  }
+
+  /**
+   * Nothing besides the positional files is stored, so there is no summary
+   * that could become outdated.
+   */
+  @Override
+  protected void markModified() {
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
   }
 
   @Override
   public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    addFrequency(resourceId, chunkNumber, triplePosition, 1);
+  }
+
+  @Override
+  public void incrementFrequencies(long[] resourceIds, int offset, int length, int chunkNumber,
+          TriplePosition triplePosition) {
+    forEachDistinctResource(Arrays.copyOfRange(resourceIds, offset, offset + length),
+            (resourceId, count) -> addFrequency(resourceId, chunkNumber, triplePosition, count));
+  }
+
+  private void addFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition,
+          long delta) {
     try {
-      int ordinal = triplePosition.ordinal();
-      RandomAccessFile file = seekToPosition(resourceId, chunkNumber, triplePosition);
+      FileChannel file = getFile(resourceId, triplePosition);
       if (file == null) return;
+      long position = getPosition(resourceId, chunkNumber, triplePosition);
+      ByteBuffer cell = cellBuffer.get();
+      cell.clear();
       long value = 0;
-      try {
-        value = file.readLong();
-      } catch (EOFException e) { }
-      file = seekToPosition(resourceId, chunkNumber, triplePosition);
-      file.writeLong(++value);
+      if (ChannelIO.readFully(file, cell, position) == Long.BYTES) {
+        value = cell.getLong(0);
+      }
+      cell.clear();
+      cell.putLong(0, value + delta);
+      ChannelIO.writeFully(file, cell, position);
+      addToSummaries(resourceId, resourceId - 1, getIndexOfTriplePosition(triplePosition),
+              chunkNumber, delta);
     } catch (IOException e) {
-      e.printStackTrace();
+      close();
+      throw new RuntimeException(e);
     }
-
   }
 
   @Override
   public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
-    RandomAccessFile file = null;
     try {
-      file = seekToPosition(resourceId, chunkNumber, triplePosition);
+      FileChannel file = getFile(resourceId, triplePosition);
       if (file == null) return 0;
+      ByteBuffer cell = cellBuffer.get();
+      cell.clear();
       long value = 0;
-      try {
-        value = file.readLong();
-      } catch (EOFException e) { }
+      if (ChannelIO.readFully(file, cell, getPosition(resourceId, chunkNumber, triplePosition))
+              == Long.BYTES) {
+        value = cell.getLong(0);
+      }
       return value;
     } catch (IOException e) {
-      e.printStackTrace();
-    } finally {
-      try {
-        if (file != null) file.close();
-      } catch (IOException e) {
-        e.printStackTrace();
+      close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Since {@link #setUp(File, int)} does not open the statistics file of
+   * {@link StatisticsDBBaseImpl}, the rows are assembled from the positional
+   * files.
+   */
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if ((resourceId <= 0) || (resourceId > MAX_RESOURCE_ID)) {
+      return null;
+    }
+    TriplePosition[] triplePositions = getTriplePositions();
+    long[] frequencies = new long[triplePositions.length * numberOfChunks];
+    for (int posI = 0; posI < triplePositions.length; posI++) {
+      for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+        frequencies[(posI * numberOfChunks) + chunkI] = getFrequency(resourceId, chunkI,
+                triplePositions[posI]);
+      }
+    }
+    return frequencies;
+  }
+
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    for (long resourceId = 1; resourceId <= MAX_RESOURCE_ID; resourceId++) {
+      long[] frequencies = getFrequencies(resourceId);
+      for (long frequency : frequencies) {
+        if (frequency != 0) {
+          visitor.visitRow(resourceId, frequencies);
+          break;
+        }
       }
     }
-    return 0;
   }
 
-  private RandomAccessFile seekToPosition(long resourceId, int chunkNumber, TriplePosition triplePosition) throws IOException {
+  private FileChannel openFile(int ordinal, int bytes) throws IOException {
+    return FileChannel.open(new File(dir, String.format("%d.%d", ordinal, bytes)).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private FileChannel getFile(long resourceId, TriplePosition triplePosition) throws IOException {
     int ordinal = triplePosition.ordinal();
-    RandomAccessFile file = null;
+    FileChannel file = null;
     for (int i = 0; i < 8; i++) {
       if (resourceId < (1<<i)) {
         if (positionalBytes[ordinal] != i) {
           positional[ordinal].close();
           positionalBytes[ordinal] = i;
-          positional[ordinal] = file = new RandomAccessFile(new File(dir, String.format("%d.%d", ordinal, i)), "rw");
+          positional[ordinal] = file = openFile(ordinal, i);
         } else {
           file = positional[ordinal];
         }
       }
     }
-    if (file == null)
-      return null;
-    long sizeOfRow = positionalBytes[ordinal] * getNumberOfChunks() * getTriplePositions().length;
-    file.seek(sizeOfRow*resourceId + positionalBytes[ordinal] * chunkNumber);
     return file;
   }
 
+  /**
+   * Each positional file stores one row of 8-byte cells per resource id. The
+   * cells must not overlap, otherwise their content would depend on the order
+   * of the updates.
+   */
+  private long getPosition(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    return ((resourceId * getNumberOfChunks()) + chunkNumber) * Long.BYTES;
+  }
+
   @Override
   public void close() {
-    for (int i = 0; i < 3; i++) {
-      try {
-        positional[i].close();
-      } catch (IOException e) {
-        e.printStackTrace();
+    IOException failure = null;
+    for (int i = 0; i < positional.length; i++) {
+      if (positional[i] != null) {
+        try {
+          positional[i].close();
+        } catch (IOException e) {
+          failure = e;
+        }
+        positional[i] = null;
       }
     }
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
   }
 
 }
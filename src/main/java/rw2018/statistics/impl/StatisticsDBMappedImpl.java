@@ -0,0 +1,271 @@
+package rw2018.statistics.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.MappedBuffers;
+
+/**
+ * This implementation uses the same file layout as
+ * {@link StatisticsDBBaseImpl}, i.e., one row of 8-byte long values per
+ * resource, but accesses the file through memory mapped segments. Each segment
+ * contains a fixed number of complete rows. New segments are mapped as soon as
+ * larger resource ids occur. Increments and lookups are plain buffer
+ * operations on the mapped memory.
+ *
+ * Segments that are only read are mapped read-only up to the end of the
+ * statistics file. As soon as a segment is written, it is mapped completely.
+ * Therefore, while the database is modified, the statistics file might be
+ * larger than the file written by {@link StatisticsDBBaseImpl}. On {@link #close()} the segments are forced and unmapped
+ * with {@link MappedBuffers#unmap(MappedByteBuffer)}. Afterwards, the file is
+ * truncated to the same length.
+ *
+ */
+public class StatisticsDBMappedImpl extends AbstractStatisticsDB {
+
+  private static final long MAX_SEGMENT_SIZE = 1 << 30;
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private long cellsPerSegment;
+
+  private File statisticsFile;
+
+  private RandomAccessFile statistics;
+
+  private FileChannel channel;
+
+  private MappedByteBuffer[] segments;
+
+  /**
+   * The length in bytes the statistics file would have if it was written by
+   * {@link StatisticsDBBaseImpl}.
+   */
+  private long length;
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    sizeOfRow = numberOfChunks * getTriplePositions().length;
+    long rowsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / (sizeOfRow * Long.BYTES));
+    cellsPerSegment = rowsPerSegment * sizeOfRow;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    statisticsFile = new File(statisticsDir.getAbsolutePath() + File.separator + "statistics");
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.ROWS, this);
+    try {
+      statistics = new RandomAccessFile(statisticsFile, "rw");
+      channel = statistics.getChannel();
+      length = (channel.size() / Long.BYTES) * Long.BYTES;
+      segments = new MappedByteBuffer[16];
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException(e);
+    }
+    openSummaries(statisticsDir, StatisticsDBMarginals.load(statisticsDir, numberOfChunks,
+            getTriplePositions().length, false));
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  private long getIndex(long resourceId, int chunkNumber, int indexOfTriplePosition) {
+    return ((resourceId - 1) * sizeOfRow) + (indexOfTriplePosition * numberOfChunks)
+            + chunkNumber;
+  }
+
+  /**
+   * Segments that are only read and end behind the statistics file are mapped
+   * read-only up to the end of the file, so that reading does not enlarge the
+   * file. A segment that is written is mapped completely. Since this might
+   * enlarge the file, the database is marked as modified before.
+   *
+   * @param index
+   *          <code>long</code> the cell that is accessed
+   * @param isWritten
+   *          <code>boolean</code> if the cell is written
+   * @return {@link MappedByteBuffer} the segment that contains the cell
+   */
+  private MappedByteBuffer getSegment(long index, boolean isWritten) {
+    long segmentIndex = index / cellsPerSegment;
+    if (segmentIndex >= Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("The cell " + index + " cannot be mapped.");
+    }
+    if (segmentIndex >= segments.length) {
+      long newLength = Math.max(segmentIndex + 1, segments.length * 2l);
+      segments = Arrays.copyOf(segments, (int) Math.min(Integer.MAX_VALUE - 8, newLength));
+    }
+    MappedByteBuffer segment = segments[(int) segmentIndex];
+    if ((segment != null) && !segment.isReadOnly()) {
+      return segment;
+    }
+    int endInSegment = getPositionInSegment(index) + Long.BYTES;
+    if ((segment != null) && !isWritten && (segment.capacity() >= endInSegment)) {
+      return segment;
+    }
+    long segmentSize = cellsPerSegment * Long.BYTES;
+    long start = segmentIndex * segmentSize;
+    try {
+      long fileSize = channel.size();
+      MappedByteBuffer newSegment;
+      if (isWritten || ((start + segmentSize) <= fileSize)) {
+        if ((start + segmentSize) > fileSize) {
+          markModified();
+        }
+        newSegment = channel.map(MapMode.READ_WRITE, start, segmentSize);
+      } else {
+        newSegment = channel.map(MapMode.READ_ONLY, start, Math.max(0, fileSize - start));
+      }
+      if (segment != null) {
+        MappedBuffers.unmap(segment);
+      }
+      segments[(int) segmentIndex] = newSegment;
+      return newSegment;
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int getPositionInSegment(long index) {
+    return (int) ((index % cellsPerSegment) * Long.BYTES);
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    long index = getIndex(resourceId, chunkNumber, indexOfTriplePosition);
+    markModified();
+    MappedByteBuffer segment = getSegment(index, true);
+    int position = getPositionInSegment(index);
+    segment.putLong(position, segment.getLong(position) + 1);
+    addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber, 1);
+    length = Math.max(length, (index + 1) * Long.BYTES);
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    long index = getIndex(resourceId, chunkNumber, getIndexOfTriplePosition(triplePosition));
+    if (((index + 1) * Long.BYTES) <= length) {
+      return getSegment(index, false).getLong(getPositionInSegment(index));
+    } else if (length >= ((resourceId - 1) * sizeOfRow * Long.BYTES)) {
+      // the resource exists but does not have a value for the current element
+      return 0;
+    } else {
+      // the resource does not exist
+      return -1;
+    }
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    long firstIndex = (resourceId - 1) * sizeOfRow;
+    if ((firstIndex * Long.BYTES) >= length) {
+      return null;
+    }
+    // rows never span two segments and the last row might be incomplete
+    long numberOfCells = Math.min(sizeOfRow, (length / Long.BYTES) - firstIndex);
+    MappedByteBuffer segment = getSegment(firstIndex + numberOfCells - 1, false);
+    int position = getPositionInSegment(firstIndex);
+    long[] result = new long[sizeOfRow];
+    for (int i = 0; i < numberOfCells; i++) {
+      result[i] = segment.getLong(position + (i * Long.BYTES));
+    }
+    return result;
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return ((resourceId - 1) * sizeOfRow * Long.BYTES) < length ? resourceId - 1 : -1;
+  }
+
+  /**
+   * Reads the mapped segments sequentially.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    long[] frequencies = new long[sizeOfRow];
+    long numberOfCells = length / Long.BYTES;
+    for (long firstCell = 0; firstCell < numberOfCells; firstCell += sizeOfRow) {
+      // rows never span two segments and the last row might be incomplete
+      long numberOfRowCells = Math.min(sizeOfRow, numberOfCells - firstCell);
+      MappedByteBuffer segment = getSegment(firstCell + numberOfRowCells - 1, false);
+      int position = getPositionInSegment(firstCell);
+      boolean isEmpty = true;
+      for (int i = 0; i < sizeOfRow; i++) {
+        frequencies[i] = i < numberOfRowCells ? segment.getLong(position + (i * Long.BYTES)) : 0;
+        isEmpty &= frequencies[i] == 0;
+      }
+      if (!isEmpty) {
+        visitor.visitRow((firstCell / sizeOfRow) + 1, frequencies);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    StatisticsDBTopResources topResources = null;
+    if ((segments != null) && (marginals != null)) {
+      topResources = getOrBuildTopResources();
+    }
+    try {
+      if (segments != null) {
+        MappedByteBuffer[] mappedSegments = segments;
+        segments = null;
+        for (MappedByteBuffer segment : mappedSegments) {
+          if (segment != null) {
+            segment.force();
+          }
+        }
+        // the file cannot be truncated on all platforms while it is mapped
+        for (int i = 0; i < mappedSegments.length; i++) {
+          if (mappedSegments[i] != null) {
+            MappedBuffers.unmap(mappedSegments[i]);
+            mappedSegments[i] = null;
+          }
+        }
+      }
+      if (channel != null && channel.isOpen()) {
+        channel.truncate(length);
+      }
+      if (statistics != null) {
+        statistics.close();
+        statistics = null;
+        long checksum = computeChecksum(statisticsFile, length);
+        StatisticsDBMetadata metadata = StatisticsDBMetadata.forRows(this, length, checksum);
+        if (topResources != null) {
+          writeSummaries(metadata, topResources);
+        } else {
+          // setUp failed before the summaries were opened
+          metadata.write(statisticsFile.getParentFile());
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
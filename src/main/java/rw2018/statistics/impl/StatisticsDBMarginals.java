@@ -0,0 +1,290 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.PagedAtomicLongArray;
+import rw2018.statistics.utilities.PagedLongArray;
+
+/**
+ * Maintains the marginals of the table of {@link StatisticsDB} while it is
+ * updated, i.e., the total frequency of each row per triple position and the
+ * total number of occurrences per chunk and triple position. Rows are
+ * addressed by their number, which is <code>resourceId - 1</code> for
+ * consecutive resource ids or an internal row number otherwise. Both marginals
+ * are read in constant time.
+ *
+ * The marginals of an {@link Encoding#ROWS} database are stored in the file
+ * <code>marginals</code> together with the checksum of the statistics file
+ * they belong to. If the checksum does not match the metadata, the marginals
+ * are recomputed with one sequential scan of the statistics file.
+ *
+ */
+class StatisticsDBMarginals {
+
+  public static final String FILE_NAME = "marginals";
+
+  protected final int numberOfChunks;
+
+  protected final int numberOfTriplePositions;
+
+  private final PagedLongArray totalFrequencies;
+
+  private final long[] chunkSizes;
+
+  private long numberOfRows;
+
+  public StatisticsDBMarginals(int numberOfChunks, int numberOfTriplePositions) {
+    this.numberOfChunks = numberOfChunks;
+    this.numberOfTriplePositions = numberOfTriplePositions;
+    totalFrequencies = new PagedLongArray();
+    chunkSizes = new long[numberOfTriplePositions * numberOfChunks];
+  }
+
+  /**
+   * @return {@link StatisticsDBMarginals} that may be updated by several
+   *         threads concurrently
+   */
+  public static StatisticsDBMarginals createConcurrent(int numberOfChunks,
+          int numberOfTriplePositions) {
+    return new ConcurrentMarginals(numberOfChunks, numberOfTriplePositions);
+  }
+
+  public void add(long rowNumber, int indexOfTriplePosition, int chunkNumber, long delta) {
+    totalFrequencies.add((rowNumber * numberOfTriplePositions) + indexOfTriplePosition, delta);
+    chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber] += delta;
+    numberOfRows = Math.max(numberOfRows, rowNumber + 1);
+  }
+
+  /**
+   * Adds all cells of a row, which are ordered like the result of
+   * {@link StatisticsDB#getFrequencies(long)}.
+   */
+  public void addRow(long rowNumber, long[] frequencies) {
+    for (int i = 0; i < frequencies.length; i++) {
+      if (frequencies[i] != 0) {
+        add(rowNumber, i / numberOfChunks, i % numberOfChunks, frequencies[i]);
+      }
+    }
+  }
+
+  public long getTotalFrequency(long rowNumber, int indexOfTriplePosition) {
+    return totalFrequencies.get((rowNumber * numberOfTriplePositions) + indexOfTriplePosition);
+  }
+
+  public long getChunkSize(int indexOfTriplePosition, int chunkNumber) {
+    return chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber];
+  }
+
+  /**
+   * @return <code>long</code> the largest updated row number + 1
+   */
+  public long getNumberOfRows() {
+    return numberOfRows;
+  }
+
+  /**
+   * @param statisticsDir
+   * @param checksum
+   *          <code>long</code> the checksum of the statistics file these
+   *          marginals belong to
+   */
+  public void write(File statisticsDir, long checksum) {
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(new File(statisticsDir, FILE_NAME)), 1 << 16));) {
+      output.writeLong(checksum);
+      output.writeInt(numberOfChunks);
+      output.writeInt(numberOfTriplePositions);
+      for (int i = 0; i < chunkSizes.length; i++) {
+        output.writeLong(getChunkSize(i / numberOfChunks, i % numberOfChunks));
+      }
+      long numberOfRows = getNumberOfRows();
+      output.writeLong(numberOfRows);
+      for (long row = 0; row < numberOfRows; row++) {
+        for (int position = 0; position < numberOfTriplePositions; position++) {
+          output.writeLong(getTotalFrequency(row, position));
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the marginals of the {@link Encoding#ROWS} database in
+   * <code>statisticsDir</code>. If the stored marginals are missing or outdated,
+   * they are recomputed from the statistics file.
+   *
+   * @param statisticsDir
+   * @param numberOfChunks
+   * @param numberOfTriplePositions
+   * @param isConcurrent
+   *          <code>boolean</code> if the returned marginals are updated
+   *          concurrently
+   * @return {@link StatisticsDBMarginals}
+   */
+  public static StatisticsDBMarginals load(File statisticsDir, int numberOfChunks,
+          int numberOfTriplePositions, boolean isConcurrent) {
+    StatisticsDBMarginals marginals = isConcurrent
+            ? createConcurrent(numberOfChunks, numberOfTriplePositions)
+            : new StatisticsDBMarginals(numberOfChunks, numberOfTriplePositions);
+    File statisticsFile = new File(statisticsDir, Encoding.ROWS.getFileName());
+    if (!statisticsFile.exists() || (statisticsFile.length() == 0)) {
+      return marginals;
+    }
+    StatisticsDBMarginals storedMarginals = read(statisticsDir, numberOfChunks,
+            numberOfTriplePositions, isConcurrent);
+    if (storedMarginals != null) {
+      return storedMarginals;
+    }
+    int sizeOfRow = numberOfChunks * numberOfTriplePositions;
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(statisticsFile), 1 << 16));) {
+      long numberOfCells = statisticsFile.length() / Long.BYTES;
+      for (long i = 0; i < numberOfCells; i++) {
+        long frequency = input.readLong();
+        if (frequency != 0) {
+          int column = (int) (i % sizeOfRow);
+          marginals.add(i / sizeOfRow, column / numberOfChunks, column % numberOfChunks,
+                  frequency);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return marginals;
+  }
+
+  /**
+   * @param statisticsDir
+   * @param numberOfChunks
+   * @param numberOfTriplePositions
+   * @param isConcurrent
+   *          <code>boolean</code> if the returned marginals are updated
+   *          concurrently
+   * @return {@link StatisticsDBMarginals} stored in <code>statisticsDir</code>
+   *         or <code>null</code> if the stored marginals are missing, do not
+   *         belong to the database described by the metadata or if the
+   *         database was modified after they were written
+   */
+  public static StatisticsDBMarginals read(File statisticsDir, int numberOfChunks,
+          int numberOfTriplePositions, boolean isConcurrent) {
+    File marginalsFile = new File(statisticsDir, FILE_NAME);
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.readIfConsistent(statisticsDir);
+    if (!marginalsFile.exists() || (metadata == null)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(marginalsFile), 1 << 16));) {
+      if ((input.readLong() != metadata.getChecksum()) || (input.readInt() != numberOfChunks)
+              || (input.readInt() != numberOfTriplePositions)) {
+        return null;
+      }
+      StatisticsDBMarginals marginals = isConcurrent
+              ? createConcurrent(numberOfChunks, numberOfTriplePositions)
+              : new StatisticsDBMarginals(numberOfChunks, numberOfTriplePositions);
+      long[] chunkSizes = new long[numberOfTriplePositions * numberOfChunks];
+      for (int i = 0; i < chunkSizes.length; i++) {
+        chunkSizes[i] = input.readLong();
+      }
+      long numberOfRows = input.readLong();
+      for (long row = 0; row < numberOfRows; row++) {
+        for (int position = 0; position < numberOfTriplePositions; position++) {
+          long totalFrequency = input.readLong();
+          if (totalFrequency != 0) {
+            marginals.setTotalFrequency(row, position, totalFrequency);
+          }
+        }
+      }
+      for (int i = 0; i < chunkSizes.length; i++) {
+        marginals.setChunkSize(i / numberOfChunks, i % numberOfChunks, chunkSizes[i]);
+      }
+      return marginals;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  protected void setTotalFrequency(long rowNumber, int indexOfTriplePosition,
+          long totalFrequency) {
+    totalFrequencies.set((rowNumber * numberOfTriplePositions) + indexOfTriplePosition,
+            totalFrequency);
+    numberOfRows = Math.max(numberOfRows, rowNumber + 1);
+  }
+
+  protected void setChunkSize(int indexOfTriplePosition, int chunkNumber, long chunkSize) {
+    chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber] = chunkSize;
+  }
+
+  /**
+   * Uses atomic arrays for the row totals and {@link LongAdder}s for the chunk
+   * sizes, since all threads update the same few chunk sizes.
+   */
+  private static class ConcurrentMarginals extends StatisticsDBMarginals {
+
+    private final PagedAtomicLongArray totalFrequencies;
+
+    private final LongAdder[] chunkSizes;
+
+    private final LongAccumulator numberOfRows;
+
+    public ConcurrentMarginals(int numberOfChunks, int numberOfTriplePositions) {
+      super(numberOfChunks, numberOfTriplePositions);
+      totalFrequencies = new PagedAtomicLongArray();
+      chunkSizes = new LongAdder[numberOfTriplePositions * numberOfChunks];
+      for (int i = 0; i < chunkSizes.length; i++) {
+        chunkSizes[i] = new LongAdder();
+      }
+      numberOfRows = new LongAccumulator(Math::max, 0);
+    }
+
+    @Override
+    public void add(long rowNumber, int indexOfTriplePosition, int chunkNumber, long delta) {
+      totalFrequencies.add((rowNumber * numberOfTriplePositions) + indexOfTriplePosition, delta);
+      chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber].add(delta);
+      numberOfRows.accumulate(rowNumber + 1);
+    }
+
+    @Override
+    public long getTotalFrequency(long rowNumber, int indexOfTriplePosition) {
+      return totalFrequencies.get((rowNumber * numberOfTriplePositions) + indexOfTriplePosition);
+    }
+
+    @Override
+    public long getChunkSize(int indexOfTriplePosition, int chunkNumber) {
+      return chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber].sum();
+    }
+
+    @Override
+    public long getNumberOfRows() {
+      return numberOfRows.get();
+    }
+
+    @Override
+    protected void setTotalFrequency(long rowNumber, int indexOfTriplePosition,
+            long totalFrequency) {
+      totalFrequencies.set((rowNumber * numberOfTriplePositions) + indexOfTriplePosition,
+              totalFrequency);
+      numberOfRows.accumulate(rowNumber + 1);
+    }
+
+    @Override
+    protected void setChunkSize(int indexOfTriplePosition, int chunkNumber, long chunkSize) {
+      LongAdder adder = chunkSizes[(indexOfTriplePosition * numberOfChunks) + chunkNumber];
+      adder.reset();
+      adder.add(chunkSize);
+    }
+
+  }
+
+}
@@ -0,0 +1,251 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+
+/**
+ * Merges several persisted databases, e.g., the partial databases that were
+ * built on different computers for their local chunks, into one database of
+ * {@link Encoding#ROWS}. The inputs may be of {@link Encoding#ROWS},
+ * {@link Encoding#SPARSE}, {@link Encoding#COMPACT} or
+ * {@link Encoding#SHARDED} and must store the same triple positions.
+ *
+ * Each local chunk of an input is mapped to a chunk of the merged database. If
+ * several inputs map a chunk to the same merged chunk, their frequencies are
+ * added. Without an explicit mapping, the chunks of the inputs are
+ * concatenated in the order of the inputs.
+ *
+ * The rows of all inputs are read with one {@link StatisticsRowCursor} per
+ * input and combined by a k-way merge on the resource ids. Thus, only one row
+ * per input is kept in memory. The merged rows are written sequentially
+ * together with their marginals, the index of the most frequent resources and
+ * the distinct resource sketches. Like the file of
+ * {@link StatisticsDBBaseImpl}, the merged statistics file ends with the last
+ * non-zero cell. Inputs that are still marked as modified, because their last
+ * session was interrupted, are rejected.
+ *
+ */
+public class StatisticsDBMerger {
+
+  /**
+   * Merges inputs with disjoint chunks. The chunks of
+   * <code>inputDirs[i]</code> follow the chunks of
+   * <code>inputDirs[i - 1]</code>.
+   *
+   * @param inputDirs
+   * @param outputDir
+   *          {@link File} a directory that does not contain a database yet
+   */
+  public static void merge(File[] inputDirs, File outputDir) {
+    int[][] chunkMappings = new int[inputDirs.length][];
+    int numberOfChunks = 0;
+    for (int i = 0; i < inputDirs.length; i++) {
+      chunkMappings[i] = new int[StatisticsDBMerger.readMetadata(inputDirs[i])
+              .getNumberOfChunks()];
+      for (int chunkI = 0; chunkI < chunkMappings[i].length; chunkI++) {
+        chunkMappings[i][chunkI] = numberOfChunks++;
+      }
+    }
+    StatisticsDBMerger.merge(inputDirs, chunkMappings, outputDir);
+  }
+
+  /**
+   * @param inputDirs
+   * @param chunkMappings
+   *          <code>int[][]</code> <code>chunkMappings[i][c]</code> is the
+   *          number of the merged chunk to which the local chunk
+   *          <code>c</code> of <code>inputDirs[i]</code> is added
+   * @param outputDir
+   *          {@link File} a directory that does not contain a database yet
+   */
+  public static void merge(File[] inputDirs, int[][] chunkMappings, File outputDir) {
+    if ((inputDirs.length == 0) || (inputDirs.length != chunkMappings.length)) {
+      throw new IllegalArgumentException(
+              "At least one input and one chunk mapping per input are required.");
+    }
+    if (StatisticsDBMetadata.read(outputDir) != null) {
+      throw new IllegalArgumentException(
+              "The output directory " + outputDir + " already contains a statistics database.");
+    }
+    TriplePosition[] triplePositions = null;
+    int[] numberOfInputChunks = new int[inputDirs.length];
+    int numberOfChunks = 0;
+    for (int i = 0; i < inputDirs.length; i++) {
+      StatisticsDBMetadata metadata = StatisticsDBMerger.readMetadata(inputDirs[i]);
+      if (triplePositions == null) {
+        triplePositions = metadata.getTriplePositions();
+      } else if (!Arrays.equals(triplePositions, metadata.getTriplePositions())) {
+        throw new IllegalArgumentException("The database in " + inputDirs[i]
+                + " stores the triple positions "
+                + Arrays.toString(metadata.getTriplePositions()) + " instead of "
+                + Arrays.toString(triplePositions) + ".");
+      }
+      numberOfInputChunks[i] = metadata.getNumberOfChunks();
+      if (chunkMappings[i].length != numberOfInputChunks[i]) {
+        throw new IllegalArgumentException("The database in " + inputDirs[i] + " has "
+                + numberOfInputChunks[i] + " chunks but " + chunkMappings[i].length
+                + " chunks are mapped.");
+      }
+      for (int chunk : chunkMappings[i]) {
+        if (chunk < 0) {
+          throw new IllegalArgumentException("Illegal chunk number " + chunk + ".");
+        }
+        numberOfChunks = Math.max(numberOfChunks, chunk + 1);
+      }
+    }
+
+    int[][] columnMappings = new int[inputDirs.length][];
+    for (int i = 0; i < inputDirs.length; i++) {
+      columnMappings[i] = new int[numberOfInputChunks[i] * triplePositions.length];
+      for (int column = 0; column < columnMappings[i].length; column++) {
+        columnMappings[i][column] = ((column / numberOfInputChunks[i]) * numberOfChunks)
+                + chunkMappings[i][column % numberOfInputChunks[i]];
+      }
+    }
+
+    if (!outputDir.exists()) {
+      outputDir.mkdirs();
+    }
+    List<StatisticsRowCursor> cursors = new ArrayList<>();
+    try {
+      for (File inputDir : inputDirs) {
+        cursors.add(StatisticsRowCursor.open(inputDir));
+      }
+      StatisticsDBMerger.merge(cursors, columnMappings, numberOfChunks, triplePositions,
+              outputDir);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      for (StatisticsRowCursor cursor : cursors) {
+        cursor.close();
+      }
+    }
+  }
+
+  private static void merge(List<StatisticsRowCursor> cursors, int[][] columnMappings,
+          int numberOfChunks, TriplePosition[] triplePositions, File outputDir)
+          throws IOException {
+    StatisticsDBMarginals marginals = new StatisticsDBMarginals(numberOfChunks,
+            triplePositions.length);
+    StatisticsDBDistinctResources distinctResources = new StatisticsDBDistinctResources(
+            numberOfChunks, triplePositions.length);
+    StatisticsDBTopResources.Builder topResources = new StatisticsDBTopResources.Builder(
+            StatisticsDBTopResources.DEFAULT_CAPACITY, numberOfChunks, triplePositions.length);
+    PriorityQueue<Integer> queue = new PriorityQueue<>(cursors.size(),
+            Comparator.comparingLong(i -> cursors.get(i).getResourceId()));
+    for (int i = 0; i < cursors.size(); i++) {
+      if (cursors.get(i).next()) {
+        queue.add(i);
+      }
+    }
+
+    long[] row = new long[numberOfChunks * triplePositions.length];
+    long nextCell = 0;
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(
+                    new File(outputDir, Encoding.ROWS.getFileName())), checksum),
+            1 << 16));) {
+      while (!queue.isEmpty()) {
+        long resourceId = cursors.get(queue.peek()).getResourceId();
+        Arrays.fill(row, 0);
+        while (!queue.isEmpty() && (cursors.get(queue.peek()).getResourceId() == resourceId)) {
+          int i = queue.poll();
+          StatisticsRowCursor cursor = cursors.get(i);
+          long[] frequencies = cursor.getFrequencies();
+          for (int column = 0; column < frequencies.length; column++) {
+            row[columnMappings[i][column]] += frequencies[column];
+          }
+          if (cursor.next()) {
+            queue.add(i);
+          }
+        }
+        // cells without occurrences are 0, the zeros after the last non-zero
+        // cell are not written
+        long firstCell = (resourceId - 1) * row.length;
+        for (int column = 0; column < row.length; column++) {
+          if (row[column] != 0) {
+            for (; nextCell < (firstCell + column); nextCell++) {
+              output.writeLong(0);
+            }
+            output.writeLong(row[column]);
+            nextCell++;
+          }
+        }
+        marginals.addRow(resourceId - 1, row);
+        topResources.addRow(resourceId, row);
+        distinctResources.addRow(resourceId, row);
+      }
+    }
+    long numberOfRows = (nextCell + row.length - 1) / row.length;
+    new StatisticsDBMetadata(Encoding.ROWS, numberOfChunks, triplePositions, Long.BYTES,
+            numberOfRows > 0 ? 1 : 0, numberOfRows, checksum.getValue()).write(outputDir);
+    marginals.write(outputDir, checksum.getValue());
+    topResources.build().write(outputDir, checksum.getValue());
+    distinctResources.write(outputDir, checksum.getValue());
+  }
+
+  private static StatisticsDBMetadata readMetadata(File statisticsDir) {
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.read(statisticsDir);
+    if (metadata == null) {
+      throw new IllegalArgumentException(
+              "The directory " + statisticsDir + " does not contain a statistics database.");
+    }
+    if (StatisticsDBMetadata.isModified(statisticsDir)) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " was not closed properly and cannot be merged.");
+    }
+    return metadata;
+  }
+
+  /**
+   * Merges the databases of the input directories into the output directory.
+   * An input directory may be followed by <code>=</code> and the comma
+   * separated numbers of the merged chunks of its local chunks. If no input has
+   * a mapping, the chunks are concatenated.
+   *
+   * @param args
+   *          the output directory and the input directories
+   */
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.out.println("java " + StatisticsDBMerger.class
+              + " <outputDir> <inputDir>[=<chunk>,<chunk>,...] ...");
+      return;
+    }
+    File outputDir = new File(args[0]);
+    File[] inputDirs = new File[args.length - 1];
+    int[][] chunkMappings = new int[inputDirs.length][];
+    int numberOfMappings = 0;
+    for (int i = 0; i < inputDirs.length; i++) {
+      String[] parts = args[i + 1].split("=", 2);
+      inputDirs[i] = new File(parts[0]);
+      if (parts.length == 2) {
+        chunkMappings[i] = Arrays.stream(parts[1].split(",")).mapToInt(Integer::parseInt)
+                .toArray();
+        numberOfMappings++;
+      }
+    }
+    if (numberOfMappings == 0) {
+      StatisticsDBMerger.merge(inputDirs, outputDir);
+    } else if (numberOfMappings == inputDirs.length) {
+      StatisticsDBMerger.merge(inputDirs, chunkMappings, outputDir);
+    } else {
+      throw new IllegalArgumentException("Either all or no input directories need a mapping.");
+    }
+  }
+
+}
@@ -0,0 +1,377 @@
+package rw2018.statistics.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+
+/**
+ * Describes a finished statistics database so that a later process can reopen
+ * it without knowing how it was created. The metadata is stored as properties
+ * file <code>metadata</code> next to the statistics files. It records the
+ * format version, the encoding of the statistics files, the number of chunks,
+ * the triple positions in the order of the rows, the width of a cell in bytes
+ * (0 for variable widths), the range of stored resource ids, the CRC32
+ * checksum of the main statistics file and the {@link Layout} of the table.
+ * Metadata without a layout is read as {@link Layout#ROW_MAJOR}.
+ *
+ * A database that is modified in place is marked by the empty file
+ * <code>modified</code> before its first write. The marker is deleted after
+ * the metadata and the summaries of the new content are written. As long as
+ * it exists, e.g., after a crash, the stored checksum and all summaries that
+ * refer to it may describe an older content.
+ *
+ */
+public class StatisticsDBMetadata {
+
+  public static final int FORMAT_VERSION = 1;
+
+  public static final String FILE_NAME = "metadata";
+
+  public static final String MODIFIED_FILE_NAME = "modified";
+
+  /**
+   * The encodings of the statistics files.
+   */
+  public static enum Encoding {
+
+    /**
+     * One row of 8-byte cells per resource id starting with id 1 in the file
+     * <code>statistics</code>, as written by {@link StatisticsDBBaseImpl},
+     * {@link StatisticsDBInMemoryImpl}, {@link StatisticsDBMappedImpl} and
+     * {@link StatisticsDBConcurrentImpl}.
+     */
+    ROWS("statistics"),
+
+    /**
+     * The file written by {@link StatisticsDBSparseImpl}.
+     */
+    SPARSE("sparse-statistics"),
+
+    /**
+     * The files written by {@link StatisticsDBCompactImpl}.
+     */
+    COMPACT("compact-statistics"),
+
+    /**
+     * The sketches written by {@link StatisticsDBCountMinImpl}.
+     */
+    COUNT_MIN("countmin-statistics"),
+
+    /**
+     * The shard files written by {@link StatisticsDBShardedImpl}. The file
+     * <code>shards</code> stores the layout of the shards together with the
+     * length and checksum of each shard file.
+     */
+    SHARDED("shards");
+
+    private final String fileName;
+
+    private Encoding(String fileName) {
+      this.fileName = fileName;
+    }
+
+    /**
+     * @return <code>String</code> the name of the file whose checksum is
+     *         stored in the metadata
+     */
+    public String getFileName() {
+      return fileName;
+    }
+
+  }
+
+  /**
+   * The orders in which the cells of the table are stored.
+   */
+  public static enum Layout {
+
+    /**
+     * The cells are only stored as described by the {@link Encoding}.
+     */
+    ROW_MAJOR,
+
+    /**
+     * In addition to the row-major file of {@link Encoding#ROWS}, the file
+     * <code>columns</code> stores the frequencies of all resources for each
+     * chunk and triple position consecutively, so that one column is read
+     * sequentially.
+     */
+    ROW_AND_COLUMN_MAJOR;
+
+  }
+
+  private final int formatVersion;
+
+  private final Encoding encoding;
+
+  private final int numberOfChunks;
+
+  private final TriplePosition[] triplePositions;
+
+  private final int cellWidth;
+
+  private final long minResourceId;
+
+  private final long maxResourceId;
+
+  private final long checksum;
+
+  private final Layout layout;
+
+  public StatisticsDBMetadata(Encoding encoding, int numberOfChunks,
+          TriplePosition[] triplePositions, int cellWidth, long minResourceId,
+          long maxResourceId, long checksum) {
+    this(encoding, numberOfChunks, triplePositions, cellWidth, minResourceId, maxResourceId,
+            checksum, Layout.ROW_MAJOR);
+  }
+
+  public StatisticsDBMetadata(Encoding encoding, int numberOfChunks,
+          TriplePosition[] triplePositions, int cellWidth, long minResourceId,
+          long maxResourceId, long checksum, Layout layout) {
+    this(FORMAT_VERSION, encoding, numberOfChunks, triplePositions, cellWidth, minResourceId,
+            maxResourceId, checksum, layout);
+  }
+
+  private StatisticsDBMetadata(int formatVersion, Encoding encoding, int numberOfChunks,
+          TriplePosition[] triplePositions, int cellWidth, long minResourceId,
+          long maxResourceId, long checksum, Layout layout) {
+    this.formatVersion = formatVersion;
+    this.encoding = encoding;
+    this.numberOfChunks = numberOfChunks;
+    this.triplePositions = triplePositions;
+    this.cellWidth = cellWidth;
+    this.minResourceId = minResourceId;
+    this.maxResourceId = maxResourceId;
+    this.checksum = checksum;
+    this.layout = layout;
+  }
+
+  public int getFormatVersion() {
+    return formatVersion;
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  public TriplePosition[] getTriplePositions() {
+    return triplePositions;
+  }
+
+  public int getCellWidth() {
+    return cellWidth;
+  }
+
+  /**
+   * @return <code>long</code> the smallest stored resource id or 0 if no
+   *         resource is stored
+   */
+  public long getMinResourceId() {
+    return minResourceId;
+  }
+
+  /**
+   * @return <code>long</code> the largest stored resource id or 0 if no
+   *         resource is stored
+   */
+  public long getMaxResourceId() {
+    return maxResourceId;
+  }
+
+  public long getChecksum() {
+    return checksum;
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * @param statisticsDir
+   * @return <code>true</code> if the checksum of the statistics file in
+   *         <code>statisticsDir</code> matches the stored checksum
+   */
+  public boolean isChecksumValid(File statisticsDir) {
+    return checksum == StatisticsDBMetadata
+            .computeChecksum(new File(statisticsDir, encoding.getFileName()));
+  }
+
+  public void write(File statisticsDir) {
+    Properties properties = new Properties();
+    properties.setProperty("formatVersion", String.valueOf(formatVersion));
+    properties.setProperty("encoding", encoding.name());
+    properties.setProperty("numberOfChunks", String.valueOf(numberOfChunks));
+    StringBuilder positions = new StringBuilder();
+    for (TriplePosition position : triplePositions) {
+      if (positions.length() > 0) {
+        positions.append(",");
+      }
+      positions.append(position.name());
+    }
+    properties.setProperty("triplePositions", positions.toString());
+    properties.setProperty("cellWidth", String.valueOf(cellWidth));
+    properties.setProperty("minResourceId", String.valueOf(minResourceId));
+    properties.setProperty("maxResourceId", String.valueOf(maxResourceId));
+    properties.setProperty("checksum", String.valueOf(checksum));
+    properties.setProperty("layout", layout.name());
+    try (OutputStream output = new FileOutputStream(new File(statisticsDir, FILE_NAME));) {
+      properties.store(output, "statistics database metadata");
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param statisticsDir
+   * @return {@link StatisticsDBMetadata} of the database in
+   *         <code>statisticsDir</code> or <code>null</code> if the directory
+   *         does not contain metadata
+   */
+  public static StatisticsDBMetadata read(File statisticsDir) {
+    File metadataFile = new File(statisticsDir, FILE_NAME);
+    if (!metadataFile.exists()) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (InputStream input = new FileInputStream(metadataFile);) {
+      properties.load(input);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    int formatVersion = Integer.parseInt(properties.getProperty("formatVersion"));
+    if (formatVersion > FORMAT_VERSION) {
+      throw new IllegalStateException("The statistics database in " + statisticsDir
+              + " has the unsupported format version " + formatVersion + ".");
+    }
+    String[] positionNames = properties.getProperty("triplePositions").split(",");
+    TriplePosition[] triplePositions = new TriplePosition[positionNames.length];
+    for (int i = 0; i < positionNames.length; i++) {
+      triplePositions[i] = TriplePosition.valueOf(positionNames[i]);
+    }
+    return new StatisticsDBMetadata(formatVersion,
+            Encoding.valueOf(properties.getProperty("encoding")),
+            Integer.parseInt(properties.getProperty("numberOfChunks")), triplePositions,
+            Integer.parseInt(properties.getProperty("cellWidth")),
+            Long.parseLong(properties.getProperty("minResourceId")),
+            Long.parseLong(properties.getProperty("maxResourceId")),
+            Long.parseLong(properties.getProperty("checksum")),
+            Layout.valueOf(properties.getProperty("layout", Layout.ROW_MAJOR.name())));
+  }
+
+  /**
+   * @param statisticsDir
+   * @return {@link StatisticsDBMetadata} of the database in
+   *         <code>statisticsDir</code> or <code>null</code> if the directory
+   *         does not contain metadata or if the database was modified after
+   *         the metadata was written
+   */
+  public static StatisticsDBMetadata readIfConsistent(File statisticsDir) {
+    if (StatisticsDBMetadata.isModified(statisticsDir)) {
+      return null;
+    }
+    return StatisticsDBMetadata.read(statisticsDir);
+  }
+
+  public static boolean isModified(File statisticsDir) {
+    return new File(statisticsDir, MODIFIED_FILE_NAME).exists();
+  }
+
+  /**
+   * Creates the marker file <code>modified</code> in
+   * <code>statisticsDir</code>.
+   */
+  public static void markModified(File statisticsDir) {
+    try {
+      new File(statisticsDir, MODIFIED_FILE_NAME).createNewFile();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Deletes the marker file <code>modified</code> in
+   * <code>statisticsDir</code>.
+   */
+  public static void clearModified(File statisticsDir) {
+    File markerFile = new File(statisticsDir, MODIFIED_FILE_NAME);
+    if (markerFile.exists() && !markerFile.delete()) {
+      throw new RuntimeException("The marker file " + markerFile + " could not be deleted.");
+    }
+  }
+
+  /**
+   * Throws an {@link IllegalArgumentException}, if <code>statisticsDir</code>
+   * contains a database with another encoding, number of chunks or other triple
+   * positions than <code>statisticsDB</code>.
+   */
+  public static void checkCompatibility(File statisticsDir, Encoding encoding,
+          StatisticsDB statisticsDB) {
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.read(statisticsDir);
+    if (metadata == null) {
+      return;
+    }
+    if ((metadata.encoding != encoding)
+            || (metadata.numberOfChunks != statisticsDB.getNumberOfChunks())
+            || !Arrays.equals(metadata.triplePositions, statisticsDB.getTriplePositions())) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " has encoding " + metadata.encoding + ", " + metadata.numberOfChunks
+              + " chunks and the triple positions " + Arrays.toString(metadata.triplePositions)
+              + " but encoding " + encoding + ", " + statisticsDB.getNumberOfChunks()
+              + " chunks and the triple positions "
+              + Arrays.toString(statisticsDB.getTriplePositions()) + " are requested.");
+    }
+  }
+
+  public static long computeChecksum(File file) {
+    CRC32 crc = new CRC32();
+    if (file.exists()) {
+      byte[] buffer = new byte[1 << 16];
+      try (InputStream input = new FileInputStream(file);) {
+        int readBytes;
+        while ((readBytes = input.read(buffer)) >= 0) {
+          crc.update(buffer, 0, readBytes);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Creates the metadata for a file of {@link Encoding#ROWS} with
+   * <code>length</code> bytes.
+   */
+  static StatisticsDBMetadata forRows(StatisticsDB statisticsDB, long length, long checksum) {
+    return StatisticsDBMetadata.forRows(statisticsDB, length, checksum, Layout.ROW_MAJOR);
+  }
+
+  /**
+   * Creates the metadata for a file of {@link Encoding#ROWS} with
+   * <code>length</code> bytes that is stored in the layout
+   * <code>layout</code>.
+   */
+  static StatisticsDBMetadata forRows(StatisticsDB statisticsDB, long length, long checksum,
+          Layout layout) {
+    long sizeOfRow = Long.BYTES * statisticsDB.getNumberOfChunks()
+            * statisticsDB.getTriplePositions().length;
+    long numberOfRows = (length + sizeOfRow - 1) / sizeOfRow;
+    return new StatisticsDBMetadata(Encoding.ROWS, statisticsDB.getNumberOfChunks(),
+            statisticsDB.getTriplePositions(), Long.BYTES, numberOfRows > 0 ? 1 : 0,
+            numberOfRows, checksum, layout);
+  }
+
+}
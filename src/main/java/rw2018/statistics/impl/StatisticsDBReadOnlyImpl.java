@@ -0,0 +1,262 @@
+package rw2018.statistics.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import rw2018.statistics.StatisticsColumnVisitor;
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.impl.StatisticsDBMetadata.Layout;
+
+/**
+ * Opens a finished statistics database of {@link Encoding#ROWS} for queries.
+ * The number of chunks and the triple positions are taken from the
+ * {@link StatisticsDBMetadata}. The statistics file is memory mapped read-only
+ * during {@link #setUp(File, int)}, so that opening the database does not
+ * depend on its size. The lookups return the same values as
+ * {@link StatisticsDBBaseImpl} and may be called concurrently. Databases of
+ * {@link Layout#ROW_AND_COLUMN_MAJOR} answer
+ * {@link #forEachFrequency(int, TriplePosition, StatisticsColumnVisitor)} from
+ * their column file. The marginals, the index of the most frequent resources,
+ * the sketches and the column file are read from the files written when the
+ * database was closed last. If one of them is missing or outdated, or if the
+ * database was not closed properly, {@link #setUp(File, int)} fails instead of
+ * scanning the table. Such a database has to be opened and closed once with
+ * {@link StatisticsDBBaseImpl} of the same {@link Layout}, which rewrites the
+ * files. {@link #close()} does not write anything.
+ *
+ */
+public class StatisticsDBReadOnlyImpl extends AbstractStatisticsDB {
+
+  private static final long MAX_SEGMENT_SIZE = 1 << 30;
+
+  private StatisticsDBMetadata metadata;
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private long cellsPerSegment;
+
+  private MappedByteBuffer[] segments;
+
+  private long length;
+
+  private StatisticsDBColumns columns;
+
+  /**
+   * Opens the database in <code>statisticsDir</code> with the number of chunks
+   * stored in its metadata.
+   *
+   * @param statisticsDir
+   * @return {@link StatisticsDBReadOnlyImpl}
+   */
+  public static StatisticsDBReadOnlyImpl open(File statisticsDir) {
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.read(statisticsDir);
+    if (metadata == null) {
+      throw new IllegalArgumentException(
+              "The directory " + statisticsDir + " does not contain a statistics database.");
+    }
+    StatisticsDBReadOnlyImpl statisticsDB = new StatisticsDBReadOnlyImpl();
+    statisticsDB.setUp(statisticsDir, metadata.getNumberOfChunks());
+    return statisticsDB;
+  }
+
+  /**
+   * @param numberOfChunks
+   *          <code>int</code> must match the number of chunks stored in the
+   *          metadata
+   * @throws IllegalArgumentException
+   *           if the database was not closed properly or if one of its
+   *           summaries is missing or outdated
+   */
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    metadata = StatisticsDBMetadata.read(statisticsDir);
+    if (metadata == null) {
+      throw new IllegalArgumentException(
+              "The directory " + statisticsDir + " does not contain a statistics database.");
+    }
+    if (metadata.getEncoding() != Encoding.ROWS) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " has the encoding " + metadata.getEncoding() + " but " + Encoding.ROWS
+              + " is required.");
+    }
+    if (metadata.getNumberOfChunks() != numberOfChunks) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " has " + metadata.getNumberOfChunks() + " chunks but " + numberOfChunks
+              + " chunks are requested.");
+    }
+    if (StatisticsDBMetadata.isModified(statisticsDir)) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " was not closed properly. Open and close it with "
+              + StatisticsDBBaseImpl.class.getSimpleName() + " to restore its summaries.");
+    }
+    int numberOfTriplePositions = getTriplePositions().length;
+    StatisticsDBMarginals marginals = StatisticsDBMarginals.read(statisticsDir, numberOfChunks,
+            numberOfTriplePositions, false);
+    if (marginals == null) {
+      throw createMissingSummaryException(statisticsDir, StatisticsDBMarginals.FILE_NAME);
+    }
+    StatisticsDBTopResources topResources = StatisticsDBTopResources.read(statisticsDir);
+    if (topResources == null) {
+      throw createMissingSummaryException(statisticsDir, StatisticsDBTopResources.FILE_NAME);
+    }
+    StatisticsDBDistinctResources distinctResources = StatisticsDBDistinctResources
+            .read(statisticsDir, numberOfChunks, numberOfTriplePositions);
+    if (distinctResources == null) {
+      throw createMissingSummaryException(statisticsDir, StatisticsDBDistinctResources.FILE_NAME);
+    }
+    columns = null;
+    if (metadata.getLayout() == Layout.ROW_AND_COLUMN_MAJOR) {
+      columns = StatisticsDBColumns.read(statisticsDir);
+      if (columns == null) {
+        throw createMissingSummaryException(statisticsDir, StatisticsDBColumns.FILE_NAME);
+      }
+    }
+    this.numberOfChunks = numberOfChunks;
+    sizeOfRow = numberOfChunks * numberOfTriplePositions;
+    long rowsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / (sizeOfRow * Long.BYTES));
+    cellsPerSegment = rowsPerSegment * sizeOfRow;
+    File statisticsFile = new File(statisticsDir, Encoding.ROWS.getFileName());
+    try (RandomAccessFile file = new RandomAccessFile(statisticsFile, "r");) {
+      FileChannel channel = file.getChannel();
+      length = (channel.size() / Long.BYTES) * Long.BYTES;
+      long segmentSize = cellsPerSegment * Long.BYTES;
+      segments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = i * segmentSize;
+        segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    openSummaries(statisticsDir, marginals, topResources, distinctResources);
+  }
+
+  private IllegalArgumentException createMissingSummaryException(File statisticsDir,
+          String fileName) {
+    return new IllegalArgumentException("The file " + fileName + " of the statistics database in "
+            + statisticsDir + " is missing or does not belong to its statistics file. Open and"
+            + " close it with " + StatisticsDBBaseImpl.class.getSimpleName() + " of the layout "
+            + metadata.getLayout() + " to rewrite it.");
+  }
+
+  public StatisticsDBMetadata getMetadata() {
+    return metadata;
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  @Override
+  public TriplePosition[] getTriplePositions() {
+    return metadata.getTriplePositions();
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  private long getCell(long index) {
+    return segments[(int) (index / cellsPerSegment)]
+            .getLong((int) ((index % cellsPerSegment) * Long.BYTES));
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    throw new UnsupportedOperationException("The statistics database is opened read-only.");
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    long index = ((resourceId - 1) * sizeOfRow)
+            + (getIndexOfTriplePosition(triplePosition) * numberOfChunks) + chunkNumber;
+    if (((index + 1) * Long.BYTES) <= length) {
+      return getCell(index);
+    } else if (length >= ((resourceId - 1) * sizeOfRow * Long.BYTES)) {
+      // the resource exists but does not have a value for the current element
+      return 0;
+    } else {
+      // the resource does not exist
+      return -1;
+    }
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    long firstIndex = (resourceId - 1) * sizeOfRow;
+    if ((firstIndex * Long.BYTES) >= length) {
+      return null;
+    }
+    long numberOfCells = Math.min(sizeOfRow, (length / Long.BYTES) - firstIndex);
+    long[] result = new long[sizeOfRow];
+    for (int i = 0; i < numberOfCells; i++) {
+      result[i] = getCell(firstIndex + i);
+    }
+    return result;
+  }
+
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    long[] frequencies = new long[sizeOfRow];
+    long numberOfCells = length / Long.BYTES;
+    for (long firstCell = 0; firstCell < numberOfCells; firstCell += sizeOfRow) {
+      boolean isEmpty = true;
+      for (int i = 0; i < sizeOfRow; i++) {
+        frequencies[i] = (firstCell + i) < numberOfCells ? getCell(firstCell + i) : 0;
+        isEmpty &= frequencies[i] == 0;
+      }
+      if (!isEmpty) {
+        visitor.visitRow((firstCell / sizeOfRow) + 1, frequencies);
+      }
+    }
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return ((resourceId - 1) * sizeOfRow * Long.BYTES) < length ? resourceId - 1 : -1;
+  }
+
+  /**
+   * Reads the column file sequentially if it exists. Otherwise, the requested
+   * cell of each row is read from the mapped statistics file.
+   */
+  @Override
+  public void forEachFrequency(int chunkNumber, TriplePosition triplePosition,
+          StatisticsColumnVisitor visitor) {
+    int column = (getIndexOfTriplePosition(triplePosition) * numberOfChunks) + chunkNumber;
+    if (columns != null) {
+      columns.forEachFrequency(column, visitor);
+      return;
+    }
+    long numberOfCells = length / Long.BYTES;
+    for (long cell = column; cell < numberOfCells; cell += sizeOfRow) {
+      long frequency = getCell(cell);
+      if (frequency != 0) {
+        visitor.visitFrequency((cell / sizeOfRow) + 1, frequency);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    segments = null;
+    marginals = null;
+  }
+
+}
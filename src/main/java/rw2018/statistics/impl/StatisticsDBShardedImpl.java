@@ -0,0 +1,526 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Partitions the table of {@link StatisticsDBBaseImpl} by triple position and
+ * by ranges of resource ids into shards that are updated independently. The
+ * resource ids are split into ranges of {@link #RESOURCES_PER_RANGE}
+ * consecutive ids, which are assigned to the shards of a triple position in a
+ * round robin fashion. Each shard stores the rows of its ranges with one 8-byte
+ * cell per chunk in its own random access file
+ * <code>shard-&lt;triplePosition&gt;-&lt;shard&gt;</code> and has its own
+ * writer thread.
+ *
+ * {@link #incrementFrequencies(long[], int, int, int, TriplePosition)} splits
+ * the resource ids of a batch into one buffer per shard and passes the buffers
+ * to the writers over lock-free queues. The writers sort each buffer and
+ * increment the cells in ascending order of the file offsets. Thus, the updates
+ * of different shards are executed in parallel, which pays off if the shard
+ * files are placed on several disks or on an NVMe device with several queues.
+ * The increments may be called from several threads concurrently. The
+ * frequencies and rows read afterwards include all increments that were
+ * finished before the read started. {@link #setUp(File, int)},
+ * {@link #forEachRow(StatisticsRowVisitor)} and {@link #close()} must not be
+ * called concurrently with other methods.
+ *
+ * The number of shards per triple position is chosen when the database is
+ * created. A reopened database keeps the layout of its shard files.
+ *
+ */
+public class StatisticsDBShardedImpl extends AbstractStatisticsDB {
+
+  public static final int DEFAULT_NUMBER_OF_SHARDS = 2;
+
+  /**
+   * The number of consecutive resource ids that are stored in the same shard.
+   */
+  public static final int RESOURCES_PER_RANGE = 1 << 12;
+
+  /**
+   * The maximal number of buffers waiting for the writer of a shard. If the
+   * queue is full, the calling thread waits.
+   */
+  private static final int MAX_QUEUED_BATCHES = 64;
+
+  private static final String SHARD_FILE_PREFIX = "shard-";
+
+  private final int initialNumberOfShards;
+
+  private int numberOfShards;
+
+  private int resourcesPerRange;
+
+  private int numberOfChunks;
+
+  private File statisticsDir;
+
+  private Shard[][] shards;
+
+  /**
+   * The first exception thrown by a writer.
+   */
+  private final AtomicReference<Throwable> failure;
+
+  public StatisticsDBShardedImpl() {
+    this(DEFAULT_NUMBER_OF_SHARDS);
+  }
+
+  /**
+   * @param numberOfShards
+   *          <code>int</code> the number of shards per triple position
+   */
+  public StatisticsDBShardedImpl(int numberOfShards) {
+    if (numberOfShards < 1) {
+      throw new IllegalArgumentException("The number of shards must be > 0.");
+    }
+    initialNumberOfShards = numberOfShards;
+    failure = new AtomicReference<>();
+  }
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    this.statisticsDir = statisticsDir;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.SHARDED, this);
+    numberOfShards = initialNumberOfShards;
+    resourcesPerRange = RESOURCES_PER_RANGE;
+    File indexFile = new File(statisticsDir, Encoding.SHARDED.getFileName());
+    if (indexFile.exists()) {
+      try (DataInputStream input = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(indexFile)));) {
+        numberOfShards = input.readInt();
+        resourcesPerRange = input.readInt();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    shards = new Shard[getTriplePositions().length][numberOfShards];
+    try {
+      for (int posI = 0; posI < shards.length; posI++) {
+        for (int shardI = 0; shardI < numberOfShards; shardI++) {
+          shards[posI][shardI] = new Shard(posI, shardI);
+        }
+      }
+    } catch (IOException e) {
+      closeShards();
+      shards = null;
+      throw new RuntimeException(e);
+    }
+    for (Shard[] shardsOfPosition : shards) {
+      for (Shard shard : shardsOfPosition) {
+        shard.writer.start();
+      }
+    }
+
+    StatisticsDBMarginals marginals = StatisticsDBMarginals.read(statisticsDir, numberOfChunks,
+            getTriplePositions().length, true);
+    if (marginals == null) {
+      StatisticsDBMarginals recomputedMarginals = StatisticsDBMarginals
+              .createConcurrent(numberOfChunks, getTriplePositions().length);
+      forEachRow((resourceId, frequencies) -> recomputedMarginals.addRow(resourceId - 1,
+              frequencies));
+      marginals = recomputedMarginals;
+    }
+    openSummaries(statisticsDir, marginals);
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  public int getNumberOfShards() {
+    return numberOfShards;
+  }
+
+  static File getShardFile(File statisticsDir, int indexOfTriplePosition, int shardNumber) {
+    return new File(statisticsDir,
+            SHARD_FILE_PREFIX + indexOfTriplePosition + "-" + shardNumber);
+  }
+
+  static int getShardNumber(long resourceId, int numberOfShards, int resourcesPerRange) {
+    return (int) (((resourceId - 1) / resourcesPerRange) % numberOfShards);
+  }
+
+  /**
+   * @return <code>long</code> the number of the row of
+   *         <code>resourceId</code> within its shard
+   */
+  static long getRowInShard(long resourceId, int numberOfShards, int resourcesPerRange) {
+    long range = (resourceId - 1) / resourcesPerRange;
+    return ((range / numberOfShards) * resourcesPerRange)
+            + ((resourceId - 1) % resourcesPerRange);
+  }
+
+  private void checkFailure() {
+    Throwable failure = this.failure.get();
+    if (failure != null) {
+      throw new RuntimeException("A writer of the sharded statistics database failed.", failure);
+    }
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    incrementFrequencies(new long[] { resourceId }, 0, 1, chunkNumber, triplePosition);
+  }
+
+  /**
+   * Splits the resource ids into one buffer per shard. The call returns as soon
+   * as the buffers are queued.
+   */
+  @Override
+  public void incrementFrequencies(long[] resourceIds, int offset, int length, int chunkNumber,
+          TriplePosition triplePosition) {
+    checkFailure();
+    Shard[] shardsOfPosition = shards[getIndexOfTriplePosition(triplePosition)];
+    markModified();
+    invalidateTopResources();
+    int[] sizes = new int[numberOfShards];
+    for (int i = offset; i < offset + length; i++) {
+      if (resourceIds[i] <= 0) {
+        throw new IllegalArgumentException(
+                "Illegal resource Id " + resourceIds[i] + ". Resource ids must be > 0.");
+      }
+      sizes[StatisticsDBShardedImpl.getShardNumber(resourceIds[i], numberOfShards,
+              resourcesPerRange)]++;
+    }
+    long[][] buffers = new long[numberOfShards][];
+    for (int shardI = 0; shardI < numberOfShards; shardI++) {
+      buffers[shardI] = new long[sizes[shardI]];
+      sizes[shardI] = 0;
+    }
+    for (int i = offset; i < offset + length; i++) {
+      int shardI = StatisticsDBShardedImpl.getShardNumber(resourceIds[i], numberOfShards,
+              resourcesPerRange);
+      buffers[shardI][sizes[shardI]++] = resourceIds[i];
+    }
+    for (int shardI = 0; shardI < numberOfShards; shardI++) {
+      if (buffers[shardI].length > 0) {
+        shardsOfPosition[shardI].enqueue(new ShardBatch(buffers[shardI], chunkNumber));
+      }
+    }
+  }
+
+  /**
+   * Waits until the writers have applied all buffers that were queued before.
+   */
+  @Override
+  protected void awaitUpdates() {
+    awaitWriters();
+  }
+
+  private void awaitWriters() {
+    for (Shard[] shardsOfPosition : shards) {
+      for (Shard shard : shardsOfPosition) {
+        shard.awaitWriter();
+      }
+    }
+    checkFailure();
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    Shard shard = shards[indexOfTriplePosition][StatisticsDBShardedImpl
+            .getShardNumber(resourceId, numberOfShards, resourcesPerRange)];
+    shard.awaitWriter();
+    checkFailure();
+    if ((resourceId - 1) > marginals.getNumberOfRows()) {
+      // the resource does not exist
+      return -1;
+    }
+    return shard.read(resourceId)[chunkNumber];
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    int shardNumber = StatisticsDBShardedImpl.getShardNumber(resourceId, numberOfShards,
+            resourcesPerRange);
+    for (Shard[] shardsOfPosition : shards) {
+      shardsOfPosition[shardNumber].awaitWriter();
+    }
+    checkFailure();
+    if ((resourceId - 1) >= marginals.getNumberOfRows()) {
+      return null;
+    }
+    long[] result = new long[numberOfChunks * shards.length];
+    for (int posI = 0; posI < shards.length; posI++) {
+      System.arraycopy(shards[posI][shardNumber].read(resourceId), 0, result,
+              posI * numberOfChunks, numberOfChunks);
+    }
+    return result;
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return (resourceId - 1) < marginals.getNumberOfRows() ? resourceId - 1 : -1;
+  }
+
+  /**
+   * Reads all shard files sequentially in parallel.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    awaitWriters();
+    try (StatisticsRowCursor cursor = StatisticsRowCursor.openShards(statisticsDir,
+            numberOfChunks, shards.length, numberOfShards, resourcesPerRange);) {
+      while (cursor.next()) {
+        visitor.visitRow(cursor.getResourceId(), cursor.getFrequencies());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Waits for the writers, closes the shard files and writes the file
+   * <code>shards</code> whose checksum is stored in the metadata.
+   */
+  @Override
+  public void close() {
+    if (shards == null) {
+      return;
+    }
+    try {
+      StatisticsDBTopResources topResources = null;
+      if (failure.get() == null) {
+        awaitWriters();
+        topResources = getOrBuildTopResources();
+      }
+      closeShards();
+      checkFailure();
+
+      File indexFile = new File(statisticsDir, Encoding.SHARDED.getFileName());
+      CRC32 checksum = new CRC32();
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+              new CheckedOutputStream(new FileOutputStream(indexFile), checksum)));) {
+        output.writeInt(numberOfShards);
+        output.writeInt(resourcesPerRange);
+        for (int posI = 0; posI < shards.length; posI++) {
+          for (int shardI = 0; shardI < numberOfShards; shardI++) {
+            File shardFile = StatisticsDBShardedImpl.getShardFile(statisticsDir, posI, shardI);
+            output.writeLong(shardFile.length());
+            output.writeLong(StatisticsDBMetadata.computeChecksum(shardFile));
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      long numberOfRows = marginals.getNumberOfRows();
+      writeSummaries(new StatisticsDBMetadata(Encoding.SHARDED, numberOfChunks,
+              getTriplePositions(), Long.BYTES, numberOfRows > 0 ? 1 : 0, numberOfRows,
+              checksum.getValue()), topResources);
+    } finally {
+      shards = null;
+    }
+  }
+
+  private void closeShards() {
+    for (Shard[] shardsOfPosition : shards) {
+      for (Shard shard : shardsOfPosition) {
+        if (shard != null) {
+          shard.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * The resource ids of one chunk and triple position that belong to the same
+   * shard.
+   */
+  private static class ShardBatch {
+
+    private final long[] resourceIds;
+
+    private final int chunkNumber;
+
+    public ShardBatch(long[] resourceIds, int chunkNumber) {
+      this.resourceIds = resourceIds;
+      this.chunkNumber = chunkNumber;
+    }
+
+  }
+
+  /**
+   * A shard file together with its queue and writer thread. The number of
+   * queued batches is incremented before a batch is added to the queue and the
+   * number of applied batches after the writer has applied it. Since the queue
+   * is FIFO, all batches that were queued before a read started have been
+   * applied as soon as the number of applied batches reaches the number of
+   * queued batches observed at the start of the read.
+   */
+  private class Shard implements Runnable {
+
+    private final int indexOfTriplePosition;
+
+    private final RandomAccessFile file;
+
+    private final ConcurrentLinkedQueue<ShardBatch> queue;
+
+    private final AtomicLong numberOfQueuedBatches;
+
+    private volatile long numberOfAppliedBatches;
+
+    private volatile boolean isClosed;
+
+    private final Thread writer;
+
+    public Shard(int indexOfTriplePosition, int shardNumber) throws IOException {
+      this.indexOfTriplePosition = indexOfTriplePosition;
+      file = new RandomAccessFile(StatisticsDBShardedImpl.getShardFile(statisticsDir,
+              indexOfTriplePosition, shardNumber), "rw");
+      queue = new ConcurrentLinkedQueue<>();
+      numberOfQueuedBatches = new AtomicLong();
+      writer = new Thread(this, "statistics-shard-" + indexOfTriplePosition + "-" + shardNumber);
+      writer.setDaemon(true);
+    }
+
+    public void enqueue(ShardBatch batch) {
+      while ((numberOfQueuedBatches.get() - numberOfAppliedBatches) >= MAX_QUEUED_BATCHES) {
+        Thread.yield();
+      }
+      numberOfQueuedBatches.incrementAndGet();
+      queue.offer(batch);
+      LockSupport.unpark(writer);
+    }
+
+    public void awaitWriter() {
+      long numberOfQueuedBatches = this.numberOfQueuedBatches.get();
+      while (numberOfAppliedBatches < numberOfQueuedBatches) {
+        Thread.yield();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        ShardBatch batch = queue.poll();
+        if (batch == null) {
+          if (isClosed) {
+            return;
+          }
+          LockSupport.park(this);
+          continue;
+        }
+        if (failure.get() == null) {
+          try {
+            apply(batch);
+          } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+        numberOfAppliedBatches++;
+      }
+    }
+
+    /**
+     * Sorts the resource ids so that the file is traversed in ascending order
+     * and increments the cell of each distinct resource id only once.
+     */
+    private synchronized void apply(ShardBatch batch) throws IOException {
+      forEachDistinctResource(batch.resourceIds, (resourceId, count) -> {
+        long offset = getOffset(resourceId) + (batch.chunkNumber * Long.BYTES);
+        file.seek(offset);
+        long value = count;
+        try {
+          value += file.readLong();
+        } catch (EOFException e) {
+          // the resource did not exist in the file yet
+        }
+        if (file.getFilePointer() != offset) {
+          file.seek(offset);
+        }
+        file.writeLong(value);
+        addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, batch.chunkNumber,
+                count);
+      });
+    }
+
+    private long getOffset(long resourceId) {
+      return StatisticsDBShardedImpl.getRowInShard(resourceId, numberOfShards, resourcesPerRange)
+              * numberOfChunks * Long.BYTES;
+    }
+
+    /**
+     * @return <code>long[]</code> the frequencies of all chunks of
+     *         <code>resourceId</code>
+     */
+    public synchronized long[] read(long resourceId) {
+      byte[] row = new byte[numberOfChunks * Long.BYTES];
+      try {
+        file.seek(getOffset(resourceId));
+        int readBytes = 0;
+        while (readBytes < row.length) {
+          int numberOfBytes = file.read(row, readBytes, row.length - readBytes);
+          if (numberOfBytes < 0) {
+            // the remaining cells are 0
+            break;
+          }
+          readBytes += numberOfBytes;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      long[] frequencies = new long[numberOfChunks];
+      for (int i = 0; i < frequencies.length; i++) {
+        frequencies[i] = NumberConversion.bytes2long(row, i * Long.BYTES);
+      }
+      return frequencies;
+    }
+
+    public void close() {
+      isClosed = true;
+      LockSupport.unpark(writer);
+      try {
+        if (writer.isAlive()) {
+          writer.join();
+        }
+        file.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+  }
+
+}
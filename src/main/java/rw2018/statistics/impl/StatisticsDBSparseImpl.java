@@ -0,0 +1,419 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.LongIntHashMap;
+import rw2018.statistics.utilities.NumberConversion;
+import rw2018.statistics.utilities.PagedLongArray;
+
+/**
+ * This implementation does not assume that resource ids are consecutive. Ids
+ * that follow the Koral layout, i.e., that encode computer, query and task in
+ * their high bits, can be arbitrarily sparse up to {@link Long#MAX_VALUE}. Only
+ * resources that actually occur are stored. An open addressing hash map maps
+ * each resource id to the number of its row.
+ *
+ * Also in memory, only the non-zero cells of a row are stored. A row is a
+ * sequence of v-byte encoded pairs of the difference to the previous non-zero
+ * column and the frequency, terminated by a 0 byte. The rows are stored on a
+ * heap of byte pages in regions whose capacity is a power of two. A row
+ * descriptor per row number stores the offset and the capacity of its region.
+ * If an incremented frequency does not require an additional byte, it is
+ * overwritten in place. Otherwise, the row is re-encoded and, if it does not
+ * fit anymore, moved to a region of a larger capacity at the end of the heap.
+ * Thus, a cell with a small frequency requires only a few bytes.
+ *
+ * The statistics are persisted in the file <code>sparse-statistics</code>
+ * during {@link #close()}. It contains the number of rows followed by the rows
+ * in ascending order of their resource ids. Each row consists of the
+ * difference to the previous resource id, the number of its non-zero cells and
+ * the column and the frequency of each non-zero cell. All these values are
+ * v-byte encoded so that a cell only requires a few bytes.
+ *
+ */
+public class StatisticsDBSparseImpl extends AbstractStatisticsDB {
+
+  private static final int MISSING_ROW = -1;
+
+  private static final int MIN_PAGE_SIZE = 1 << 20;
+
+  /**
+   * The lowest bits of a row descriptor store the capacity code. A row with
+   * code <code>c</code> has a capacity of <code>2^c</code> bytes. The
+   * descriptor 0 marks a row without a region.
+   */
+  private static final int CAPACITY_CODE_BITS = 5;
+
+  private static final long CAPACITY_CODE_MASK = (1 << CAPACITY_CODE_BITS) - 1;
+
+  private static final int MIN_CAPACITY_CODE = 2;
+
+  /**
+   * The maximal length of a v-byte encoded cell consisting of an
+   * <code>int</code> column difference and a positive <code>long</code>
+   * frequency.
+   */
+  private static final int MAX_CELL_LENGTH = 5 + 9;
+
+  private int numberOfChunks;
+
+  private int sizeOfRow;
+
+  private File statisticsFile;
+
+  private LongIntHashMap rowNumbers;
+
+  private PagedLongArray rowDescriptors;
+
+  private List<byte[]> pages;
+
+  private int pageSize;
+
+  private long heapSize;
+
+  private int numberOfRows;
+
+  private long[] rowBuffer;
+
+  private byte[] encodingBuffer;
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    sizeOfRow = numberOfChunks * getTriplePositions().length;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    statisticsFile = new File(
+            statisticsDir.getAbsolutePath() + File.separator + "sparse-statistics");
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.SPARSE, this);
+    rowNumbers = new LongIntHashMap();
+    rowDescriptors = new PagedLongArray();
+    pages = new ArrayList<>();
+    encodingBuffer = new byte[(sizeOfRow * MAX_CELL_LENGTH) + 1];
+    pageSize = Math.max(MIN_PAGE_SIZE, getCapacity(getCapacityCode(encodingBuffer.length)));
+    heapSize = 0;
+    rowBuffer = new long[sizeOfRow];
+    numberOfRows = 0;
+    StatisticsDBMarginals marginals = new StatisticsDBMarginals(numberOfChunks,
+            getTriplePositions().length);
+    if (statisticsFile.exists()) {
+      load(marginals);
+    }
+    openSummaries(statisticsDir, marginals);
+  }
+
+  private void load(StatisticsDBMarginals marginals) {
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(statisticsFile)));) {
+      long numberOfStoredRows = NumberConversion.readVByte(input);
+      long resourceId = 0;
+      for (long i = 0; i < numberOfStoredRows; i++) {
+        resourceId += NumberConversion.readVByte(input);
+        int rowNumber = getOrCreateRow(resourceId);
+        Arrays.fill(rowBuffer, 0);
+        long numberOfCells = NumberConversion.readVByte(input);
+        for (long j = 0; j < numberOfCells; j++) {
+          int column = (int) NumberConversion.readVByte(input);
+          long frequency = NumberConversion.readVByte(input);
+          rowBuffer[column] = frequency;
+          marginals.add(rowNumber, column / numberOfChunks, column % numberOfChunks, frequency);
+        }
+        writeRow(rowNumber, rowBuffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  private int getColumn(int chunkNumber, TriplePosition triplePosition) {
+    return (getIndexOfTriplePosition(triplePosition) * numberOfChunks) + chunkNumber;
+  }
+
+  private int getOrCreateRow(long resourceId) {
+    int rowNumber = rowNumbers.get(resourceId, MISSING_ROW);
+    if (rowNumber == MISSING_ROW) {
+      if (numberOfRows == Integer.MAX_VALUE) {
+        throw new IllegalStateException("The maximal number of resources is reached.");
+      }
+      rowNumber = numberOfRows++;
+      rowNumbers.put(resourceId, rowNumber);
+    }
+    return rowNumber;
+  }
+
+  private static int getCapacity(int capacityCode) {
+    return 1 << capacityCode;
+  }
+
+  private static int getCapacityCode(int length) {
+    int capacityCode = MIN_CAPACITY_CODE;
+    while (getCapacity(capacityCode) < length) {
+      capacityCode++;
+    }
+    return capacityCode;
+  }
+
+  private static long createDescriptor(long offset, int capacityCode) {
+    return (offset << CAPACITY_CODE_BITS) | capacityCode;
+  }
+
+  /**
+   * Reserves a region with the given capacity on the row heap. Regions never
+   * span two pages.
+   *
+   * @return <code>long</code> the offset of the region on the heap
+   */
+  private long allocate(int capacity) {
+    if ((getOffsetInPage(heapSize) + capacity) > pageSize) {
+      heapSize = ((heapSize / pageSize) + 1) * pageSize;
+    }
+    long offset = heapSize;
+    heapSize += capacity;
+    while (pages.size() <= (heapSize - 1) / pageSize) {
+      pages.add(new byte[pageSize]);
+    }
+    return offset;
+  }
+
+  private byte[] getPage(long offset) {
+    return pages.get((int) (offset / pageSize));
+  }
+
+  private int getOffsetInPage(long offset) {
+    return (int) (offset % pageSize);
+  }
+
+  /**
+   * Decodes the row into <code>frequencies</code>.
+   *
+   * @return <code>boolean</code> <code>true</code> if the row has no non-zero
+   *         cell
+   */
+  private boolean readRow(int rowNumber, long[] frequencies) {
+    Arrays.fill(frequencies, 0);
+    long descriptor = rowDescriptors.get(rowNumber);
+    if (descriptor == 0) {
+      return true;
+    }
+    long offset = descriptor >>> CAPACITY_CODE_BITS;
+    byte[] page = getPage(offset);
+    int position = getOffsetInPage(offset);
+    int column = -1;
+    while (page[position] != 0) {
+      long gap = NumberConversion.vbyte2long(page, position);
+      position += NumberConversion.getVByteLength(gap);
+      column += (int) gap;
+      frequencies[column] = NumberConversion.vbyte2long(page, position);
+      position += NumberConversion.getVByteLength(frequencies[column]);
+    }
+    return column == -1;
+  }
+
+  /**
+   * Encodes <code>frequencies</code> into the region of the row. If the region
+   * is too small, the row is moved to a larger region at the end of the heap.
+   */
+  private void writeRow(int rowNumber, long[] frequencies) {
+    int length = 0;
+    int previousColumn = -1;
+    for (int column = 0; column < frequencies.length; column++) {
+      if (frequencies[column] != 0) {
+        length = NumberConversion.long2vbyte(column - previousColumn, encodingBuffer, length);
+        length = NumberConversion.long2vbyte(frequencies[column], encodingBuffer, length);
+        previousColumn = column;
+      }
+    }
+    encodingBuffer[length++] = 0;
+    long descriptor = rowDescriptors.get(rowNumber);
+    long offset = descriptor >>> CAPACITY_CODE_BITS;
+    if ((descriptor == 0)
+            || (getCapacity((int) (descriptor & CAPACITY_CODE_MASK)) < length)) {
+      int capacityCode = getCapacityCode(length);
+      offset = allocate(getCapacity(capacityCode));
+      rowDescriptors.set(rowNumber, createDescriptor(offset, capacityCode));
+    }
+    System.arraycopy(encodingBuffer, 0, getPage(offset), getOffsetInPage(offset), length);
+  }
+
+  /**
+   * @return <code>int</code> the position of the v-byte encoded frequency of
+   *         <code>column</code> or -1 if the cell is not stored in the row
+   */
+  private int findCell(byte[] page, int position, int column) {
+    int currentColumn = -1;
+    while (page[position] != 0) {
+      long gap = NumberConversion.vbyte2long(page, position);
+      position += NumberConversion.getVByteLength(gap);
+      currentColumn += (int) gap;
+      if (currentColumn == column) {
+        return position;
+      } else if (currentColumn > column) {
+        return -1;
+      }
+      position += NumberConversion.getVByteLength(NumberConversion.vbyte2long(page, position));
+    }
+    return -1;
+  }
+
+  /**
+   * Increments the frequency of an already stored cell, if its v-byte encoding
+   * does not become longer.
+   */
+  private boolean incrementInPlace(int rowNumber, int column) {
+    long descriptor = rowDescriptors.get(rowNumber);
+    if (descriptor == 0) {
+      return false;
+    }
+    long offset = descriptor >>> CAPACITY_CODE_BITS;
+    byte[] page = getPage(offset);
+    int position = findCell(page, getOffsetInPage(offset), column);
+    if (position == -1) {
+      return false;
+    }
+    long frequency = NumberConversion.vbyte2long(page, position);
+    if (NumberConversion.getVByteLength(frequency) != NumberConversion
+            .getVByteLength(frequency + 1)) {
+      return false;
+    }
+    NumberConversion.long2vbyte(frequency + 1, page, position);
+    return true;
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    int rowNumber = getOrCreateRow(resourceId);
+    if (!incrementInPlace(rowNumber, column)) {
+      readRow(rowNumber, rowBuffer);
+      rowBuffer[column]++;
+      writeRow(rowNumber, rowBuffer);
+    }
+    addToSummaries(resourceId, rowNumber, column / numberOfChunks, chunkNumber, 1);
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    int column = getColumn(chunkNumber, triplePosition);
+    int rowNumber = rowNumbers.get(resourceId, MISSING_ROW);
+    if (rowNumber == MISSING_ROW) {
+      return -1;
+    }
+    long descriptor = rowDescriptors.get(rowNumber);
+    if (descriptor == 0) {
+      return 0;
+    }
+    long offset = descriptor >>> CAPACITY_CODE_BITS;
+    byte[] page = getPage(offset);
+    int position = findCell(page, getOffsetInPage(offset), column);
+    return position == -1 ? 0 : NumberConversion.vbyte2long(page, position);
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    int rowNumber = rowNumbers.get(resourceId, MISSING_ROW);
+    if (rowNumber == MISSING_ROW) {
+      return null;
+    }
+    long[] result = new long[sizeOfRow];
+    readRow(rowNumber, result);
+    return result;
+  }
+
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return rowNumbers.get(resourceId, MISSING_ROW);
+  }
+
+  /**
+   * Since the resource ids are not consecutive, only the stored resources are
+   * visited in ascending order of their ids.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    long[] frequencies = new long[sizeOfRow];
+    for (long resourceId : rowNumbers.getSortedKeys()) {
+      if (!readRow(rowNumbers.get(resourceId, MISSING_ROW), frequencies)) {
+        visitor.visitRow(resourceId, frequencies);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (rowNumbers == null) {
+      return;
+    }
+    StatisticsDBTopResources topResources = getOrBuildTopResources();
+    long[] resourceIds = rowNumbers.getSortedKeys();
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(statisticsFile), checksum), 1 << 16));) {
+      NumberConversion.writeVByte(output, resourceIds.length);
+      long previousResourceId = 0;
+      for (long resourceId : resourceIds) {
+        readRow(rowNumbers.get(resourceId, MISSING_ROW), rowBuffer);
+        int numberOfCells = 0;
+        for (int i = 0; i < sizeOfRow; i++) {
+          if (rowBuffer[i] != 0) {
+            numberOfCells++;
+          }
+        }
+        NumberConversion.writeVByte(output, resourceId - previousResourceId);
+        NumberConversion.writeVByte(output, numberOfCells);
+        for (int i = 0; i < sizeOfRow; i++) {
+          if (rowBuffer[i] != 0) {
+            NumberConversion.writeVByte(output, i);
+            NumberConversion.writeVByte(output, rowBuffer[i]);
+          }
+        }
+        previousResourceId = resourceId;
+      }
+      output.flush();
+      writeSummaries(new StatisticsDBMetadata(Encoding.SPARSE, numberOfChunks,
+              getTriplePositions(), 0, resourceIds.length > 0 ? resourceIds[0] : 0,
+              resourceIds.length > 0 ? resourceIds[resourceIds.length - 1] : 0,
+              checksum.getValue()), topResources);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      rowNumbers = null;
+      rowDescriptors = null;
+      pages = null;
+      rowBuffer = null;
+      encodingBuffer = null;
+      marginals = null;
+    }
+  }
+
+}
@@ -0,0 +1,174 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.utilities.TopKHeap;
+
+/**
+ * An index of the most frequent resources per chunk and triple position. It is
+ * built with one scan of {@link StatisticsDB#forEachRow} during
+ * {@link StatisticsDB#close()} and stored in the file
+ * <code>top-resources</code> together with the checksum of the statistics
+ * file. A reopened database answers
+ * {@link StatisticsDB#getTopResources(int, TriplePosition, int)} from the index
+ * as long as it is not modified and <code>k</code> does not exceed the
+ * capacity of the index.
+ *
+ */
+class StatisticsDBTopResources {
+
+  public static final String FILE_NAME = "top-resources";
+
+  /**
+   * The number of resources stored per chunk and triple position.
+   */
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  private final int capacity;
+
+  private final int numberOfChunks;
+
+  private final long[][] resourceIds;
+
+  private StatisticsDBTopResources(int capacity, int numberOfChunks, long[][] resourceIds) {
+    this.capacity = capacity;
+    this.numberOfChunks = numberOfChunks;
+    this.resourceIds = resourceIds;
+  }
+
+  public static StatisticsDBTopResources build(StatisticsDB statisticsDB, int capacity) {
+    Builder builder = new Builder(capacity, statisticsDB.getNumberOfChunks(),
+            statisticsDB.getTriplePositions().length);
+    statisticsDB.forEachRow(builder::addRow);
+    return builder.build();
+  }
+
+  /**
+   * @return <code>long[]</code> the ids of the <code>k</code> most frequent
+   *         resources or <code>null</code> if <code>k</code> exceeds the
+   *         capacity of this index
+   */
+  public long[] getTopResources(int indexOfTriplePosition, int chunkNumber, int k) {
+    long[] ids = resourceIds[(indexOfTriplePosition * numberOfChunks) + chunkNumber];
+    if ((k > capacity) && (ids.length == capacity)) {
+      return null;
+    }
+    return Arrays.copyOf(ids, Math.min(k, ids.length));
+  }
+
+  /**
+   * @param statisticsDir
+   * @param checksum
+   *          <code>long</code> the checksum of the statistics file this index
+   *          belongs to
+   */
+  public void write(File statisticsDir, long checksum) {
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(new File(statisticsDir, FILE_NAME)), 1 << 16));) {
+      output.writeLong(checksum);
+      output.writeInt(capacity);
+      output.writeInt(numberOfChunks);
+      output.writeInt(resourceIds.length);
+      for (long[] ids : resourceIds) {
+        output.writeInt(ids.length);
+        for (long id : ids) {
+          output.writeLong(id);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param statisticsDir
+   * @return {@link StatisticsDBTopResources} of the database in
+   *         <code>statisticsDir</code> or <code>null</code> if there is no
+   *         index, if it does not belong to the current statistics file or if
+   *         the database was modified after it was written
+   */
+  public static StatisticsDBTopResources read(File statisticsDir) {
+    File indexFile = new File(statisticsDir, FILE_NAME);
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.readIfConsistent(statisticsDir);
+    if (!indexFile.exists() || (metadata == null)) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));) {
+      if (input.readLong() != metadata.getChecksum()) {
+        return null;
+      }
+      int capacity = input.readInt();
+      int numberOfChunks = input.readInt();
+      if (numberOfChunks != metadata.getNumberOfChunks()) {
+        return null;
+      }
+      long[][] resourceIds = new long[input.readInt()][];
+      for (int i = 0; i < resourceIds.length; i++) {
+        resourceIds[i] = new long[input.readInt()];
+        for (int j = 0; j < resourceIds[i].length; j++) {
+          resourceIds[i][j] = input.readLong();
+        }
+      }
+      return new StatisticsDBTopResources(capacity, numberOfChunks, resourceIds);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Collects the index from rows that are passed one by one, e.g., while the
+   * rows of several databases are merged.
+   */
+  public static class Builder {
+
+    private final int capacity;
+
+    private final int numberOfChunks;
+
+    private final TopKHeap[] heaps;
+
+    public Builder(int capacity, int numberOfChunks, int numberOfTriplePositions) {
+      this.capacity = capacity;
+      this.numberOfChunks = numberOfChunks;
+      heaps = new TopKHeap[numberOfChunks * numberOfTriplePositions];
+      for (int i = 0; i < heaps.length; i++) {
+        heaps[i] = new TopKHeap(capacity);
+      }
+    }
+
+    /**
+     * @param resourceId
+     * @param frequencies
+     *          <code>long[]</code> the row ordered like the result of
+     *          {@link StatisticsDB#getFrequencies(long)}
+     */
+    public void addRow(long resourceId, long[] frequencies) {
+      for (int i = 0; i < frequencies.length; i++) {
+        if ((frequencies[i] > 0) && (frequencies[i] > heaps[i].getMinimalFrequency())) {
+          heaps[i].offer(resourceId, frequencies[i]);
+        }
+      }
+    }
+
+    public StatisticsDBTopResources build() {
+      long[][] resourceIds = new long[heaps.length][];
+      for (int i = 0; i < heaps.length; i++) {
+        resourceIds[i] = heaps[i].toSortedIds();
+      }
+      return new StatisticsDBTopResources(capacity, numberOfChunks, resourceIds);
+    }
+
+  }
+
+}
@@ -0,0 +1,487 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.LongLongHashMap;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Stores the same random access file as {@link StatisticsDBBaseImpl} but
+ * collects the increments in a write-behind buffer first. The buffer is a
+ * {@link LongLongHashMap} from the file offset of a cell to the sum of its
+ * pending increments, so that repeated increments of popular resources, e.g.,
+ * the property <code>rdf:type</code>, are coalesced into one update of the
+ * file.
+ *
+ * If the buffer contains <code>maxBufferedCells</code> cells or if it was not
+ * flushed for <code>flushIntervalInMillis</code> milliseconds, it is handed
+ * over to a background thread and a second buffer takes the increments. The
+ * background thread sorts the offsets and updates the file in ascending order.
+ * Neighbouring cells are read and written as one span of bytes. The
+ * increments only wait if the previous buffer is still being written when the
+ * next buffer is full.
+ *
+ * The frequencies that are read add the pending increments of both buffers to
+ * the file content. The marginals and sketches are maintained during the
+ * increments. {@link #close()} writes all buffered increments and forces them
+ * to the storage device before the metadata is written.
+ *
+ */
+public class StatisticsDBWriteBehindImpl extends AbstractStatisticsDB {
+
+  public static final int DEFAULT_MAX_BUFFERED_CELLS = 1 << 18;
+
+  public static final long DEFAULT_FLUSH_INTERVAL_IN_MILLIS = 1000;
+
+  /**
+   * The maximal number of bytes that are read and written as one span.
+   */
+  private static final int MAX_SPAN_SIZE = 1 << 16;
+
+  private final int maxBufferedCells;
+
+  private final long flushIntervalInMillis;
+
+  private int numberOfChunks;
+
+  private File statisticsFile;
+
+  private RandomAccessFile statistics;
+
+  /**
+   * Guards {@link #statistics} and the removal of {@link #flushingBuffer}, so
+   * that a reader never sees a flushed increment twice. It is acquired before
+   * {@link #bufferLock}.
+   */
+  private final Object fileLock;
+
+  /**
+   * Guards the buffers, {@link #length}, {@link #lastFlushTime} and
+   * {@link #isClosed}.
+   */
+  private final Object bufferLock;
+
+  /**
+   * Maps <code>offset + 1</code> to the pending increments of the cell at
+   * <code>offset</code>, since the key 0 is reserved.
+   */
+  private LongLongHashMap buffer;
+
+  private LongLongHashMap flushingBuffer;
+
+  private LongLongHashMap spareBuffer;
+
+  /**
+   * The length of the file after all pending increments are written.
+   */
+  private long length;
+
+  private long lastFlushTime;
+
+  private boolean isClosed;
+
+  private Thread flusher;
+
+  private volatile IOException failure;
+
+  public StatisticsDBWriteBehindImpl() {
+    this(DEFAULT_MAX_BUFFERED_CELLS, DEFAULT_FLUSH_INTERVAL_IN_MILLIS);
+  }
+
+  /**
+   * @param maxBufferedCells
+   *          <code>int</code> the number of distinct cells after which the
+   *          buffer is flushed
+   * @param flushIntervalInMillis
+   *          <code>long</code> the time after which a non-empty buffer is
+   *          flushed
+   */
+  public StatisticsDBWriteBehindImpl(int maxBufferedCells, long flushIntervalInMillis) {
+    if ((maxBufferedCells < 1) || (flushIntervalInMillis < 1)) {
+      throw new IllegalArgumentException(
+              "The buffer size and the flush interval must be > 0.");
+    }
+    this.maxBufferedCells = maxBufferedCells;
+    this.flushIntervalInMillis = flushIntervalInMillis;
+    fileLock = new Object();
+    bufferLock = new Object();
+  }
+
+  @Override
+  public void setUp(File statisticsDir, int numberOfChunks) {
+    this.numberOfChunks = numberOfChunks;
+    if (!statisticsDir.exists()) {
+      statisticsDir.mkdirs();
+    }
+    statisticsFile = new File(statisticsDir, Encoding.ROWS.getFileName());
+    StatisticsDBMetadata.checkCompatibility(statisticsDir, Encoding.ROWS, this);
+    try {
+      statistics = new RandomAccessFile(statisticsFile, "rw");
+      length = statistics.length();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    buffer = new LongLongHashMap(maxBufferedCells);
+    spareBuffer = new LongLongHashMap(maxBufferedCells);
+    flushingBuffer = null;
+    isClosed = false;
+    lastFlushTime = System.currentTimeMillis();
+    openSummaries(statisticsDir, StatisticsDBMarginals.load(statisticsDir, numberOfChunks,
+            getTriplePositions().length, false));
+    flusher = new Thread(this::runFlusher, "statistics-write-behind");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  @Override
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  private long getSizeOfRow() {
+    return Long.BYTES * numberOfChunks * getTriplePositions().length;
+  }
+
+  private long getOffset(long resourceId, int chunkNumber, int indexOfTriplePosition) {
+    if (resourceId <= 0) {
+      throw new IllegalArgumentException(
+              "Illegal resource Id " + resourceId + ". Resource ids must be > 0.");
+    }
+    return ((resourceId - 1) * getSizeOfRow())
+            + (((indexOfTriplePosition * numberOfChunks) + chunkNumber) * Long.BYTES);
+  }
+
+  private void checkFailure() {
+    IOException failure = this.failure;
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  @Override
+  public void incrementFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    checkFailure();
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    long offset = getOffset(resourceId, chunkNumber, indexOfTriplePosition);
+    markModified();
+    synchronized (bufferLock) {
+      addToBuffer(offset, 1);
+    }
+    addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber, 1);
+  }
+
+  /**
+   * Sorts the resource ids so that the buffer is updated only once per
+   * distinct resource id.
+   */
+  @Override
+  public void incrementFrequencies(long[] resourceIds, int offset, int length, int chunkNumber,
+          TriplePosition triplePosition) {
+    checkFailure();
+    int indexOfTriplePosition = getIndexOfTriplePosition(triplePosition);
+    markModified();
+    forEachDistinctResource(Arrays.copyOfRange(resourceIds, offset, offset + length),
+            (resourceId, count) -> {
+              long cellOffset = getOffset(resourceId, chunkNumber, indexOfTriplePosition);
+              synchronized (bufferLock) {
+                addToBuffer(cellOffset, count);
+              }
+              addToSummaries(resourceId, resourceId - 1, indexOfTriplePosition, chunkNumber,
+                      count);
+            });
+  }
+
+  /**
+   * Has to be called while holding {@link #bufferLock}.
+   */
+  private void addToBuffer(long offset, long delta) {
+    buffer.add(offset + 1, delta);
+    length = Math.max(length, offset + Long.BYTES);
+    if (buffer.size() >= maxBufferedCells) {
+      handOverBuffer();
+    }
+  }
+
+  /**
+   * Passes the current buffer to the flusher as soon as the previous buffer
+   * is written. Has to be called while holding {@link #bufferLock}.
+   */
+  private void handOverBuffer() {
+    try {
+      while (flushingBuffer != null) {
+        bufferLock.wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    flushingBuffer = buffer;
+    buffer = spareBuffer;
+    spareBuffer = null;
+    bufferLock.notifyAll();
+  }
+
+  private void runFlusher() {
+    while (true) {
+      LongLongHashMap batch;
+      synchronized (bufferLock) {
+        try {
+          while (flushingBuffer == null) {
+            if (isClosed) {
+              return;
+            }
+            long waitTime = (lastFlushTime + flushIntervalInMillis) - System.currentTimeMillis();
+            if (waitTime > 0) {
+              bufferLock.wait(waitTime);
+            } else if (buffer.size() > 0) {
+              handOverBuffer();
+            } else {
+              lastFlushTime = System.currentTimeMillis();
+            }
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        batch = flushingBuffer;
+      }
+      synchronized (fileLock) {
+        if (failure == null) {
+          try {
+            write(batch);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        synchronized (bufferLock) {
+          batch.clear();
+          spareBuffer = batch;
+          flushingBuffer = null;
+          lastFlushTime = System.currentTimeMillis();
+          bufferLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the increments of <code>batch</code> to the file in ascending order
+   * of the offsets. Has to be called while holding {@link #fileLock}.
+   */
+  private void write(LongLongHashMap batch) throws IOException {
+    long[] keys = batch.getSortedKeys();
+    byte[] span = new byte[MAX_SPAN_SIZE];
+    for (int i = 0; i < keys.length;) {
+      long firstOffset = keys[i] - 1;
+      int next = i + 1;
+      while ((next < keys.length)
+              && (((keys[next] - 1) + Long.BYTES) - firstOffset) <= MAX_SPAN_SIZE) {
+        next++;
+      }
+      int spanLength = (int) (((keys[next - 1] - 1) + Long.BYTES) - firstOffset);
+      statistics.seek(firstOffset);
+      int readBytes = 0;
+      while (readBytes < spanLength) {
+        int numberOfBytes = statistics.read(span, readBytes, spanLength - readBytes);
+        if (numberOfBytes < 0) {
+          // the remaining cells did not exist in the file yet
+          break;
+        }
+        readBytes += numberOfBytes;
+      }
+      Arrays.fill(span, readBytes, spanLength, (byte) 0);
+      for (int j = i; j < next; j++) {
+        int index = (int) ((keys[j] - 1) - firstOffset);
+        NumberConversion.long2bytes(
+                NumberConversion.bytes2long(span, index) + batch.get(keys[j], 0), span, index);
+      }
+      statistics.seek(firstOffset);
+      statistics.write(span, 0, spanLength);
+      i = next;
+    }
+  }
+
+  /**
+   * Waits until all increments are written to the file.
+   */
+  public void flush() {
+    synchronized (bufferLock) {
+      try {
+        if (buffer.size() > 0) {
+          handOverBuffer();
+        }
+        while (flushingBuffer != null) {
+          bufferLock.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * Has to be called while holding {@link #bufferLock}.
+   */
+  private long getPendingIncrements(long offset) {
+    long increments = buffer.get(offset + 1, 0);
+    if (flushingBuffer != null) {
+      increments += flushingBuffer.get(offset + 1, 0);
+    }
+    return increments;
+  }
+
+  @Override
+  public long getFrequency(long resourceId, int chunkNumber, TriplePosition triplePosition) {
+    if (resourceId <= 0) {
+      return -1;
+    }
+    checkFailure();
+    long offset = getOffset(resourceId, chunkNumber, getIndexOfTriplePosition(triplePosition));
+    try {
+      synchronized (fileLock) {
+        long value = 0;
+        statistics.seek(offset);
+        try {
+          value = statistics.readLong();
+        } catch (EOFException e) {
+          // the cell only exists in the buffers
+        }
+        synchronized (bufferLock) {
+          if ((offset + Long.BYTES) <= length) {
+            return value + getPendingIncrements(offset);
+          } else if (length >= ((resourceId - 1) * getSizeOfRow())) {
+            // the resource exists but does not have a value for the current
+            // element
+            return 0;
+          } else {
+            // the resource does not exist
+            return -1;
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public long[] getFrequencies(long resourceId) {
+    if (resourceId <= 0) {
+      return null;
+    }
+    checkFailure();
+    int sizeOfRow = (int) getSizeOfRow();
+    long firstOffset = (resourceId - 1) * sizeOfRow;
+    byte[] row = new byte[sizeOfRow];
+    try {
+      synchronized (fileLock) {
+        statistics.seek(firstOffset);
+        int readBytes = Math.max(0, statistics.read(row));
+        Arrays.fill(row, readBytes, row.length, (byte) 0);
+        synchronized (bufferLock) {
+          if (firstOffset >= length) {
+            return null;
+          }
+          long[] result = new long[row.length / Long.BYTES];
+          for (int i = 0; i < result.length; i++) {
+            result[i] = NumberConversion.bytes2long(row, i * Long.BYTES)
+                    + getPendingIncrements(firstOffset + (i * Long.BYTES));
+          }
+          return result;
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * The marginals include the buffered increments.
+   */
+  @Override
+  protected long getRowNumber(long resourceId) {
+    return (resourceId - 1) < marginals.getNumberOfRows() ? resourceId - 1 : -1;
+  }
+
+  /**
+   * Flushes the buffers and reads the statistics file sequentially.
+   */
+  @Override
+  public void forEachRow(StatisticsRowVisitor visitor) {
+    flush();
+    int sizeOfRow = numberOfChunks * getTriplePositions().length;
+    try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(statisticsFile), 1 << 16));) {
+      long[] frequencies = new long[sizeOfRow];
+      long numberOfCells = statistics.length() / Long.BYTES;
+      for (long firstCell = 0; firstCell < numberOfCells; firstCell += sizeOfRow) {
+        boolean isEmpty = true;
+        for (int i = 0; i < sizeOfRow; i++) {
+          frequencies[i] = (firstCell + i) < numberOfCells ? input.readLong() : 0;
+          isEmpty &= frequencies[i] == 0;
+        }
+        if (!isEmpty) {
+          visitor.visitRow((firstCell / sizeOfRow) + 1, frequencies);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Drains the buffers, forces the statistics file to the storage device and
+   * writes the metadata afterwards.
+   */
+  @Override
+  public void close() {
+    if (statistics == null) {
+      return;
+    }
+    try {
+      StatisticsDBTopResources topResources = null;
+      if (failure == null) {
+        topResources = getOrBuildTopResources();
+        flush();
+      }
+      synchronized (bufferLock) {
+        isClosed = true;
+        bufferLock.notifyAll();
+      }
+      flusher.join();
+      checkFailure();
+      statistics.getFD().sync();
+      long length = statistics.length();
+      statistics.close();
+      statistics = null;
+      long checksum = computeChecksum(statisticsFile, length);
+      writeSummaries(StatisticsDBMetadata.forRows(this, length, checksum), topResources);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      if (statistics != null) {
+        try {
+          statistics.close();
+        } catch (IOException e) {
+          // the original exception is thrown
+        }
+        statistics = null;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,357 @@
+package rw2018.statistics.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.impl.StatisticsDBMetadata.Encoding;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Reads the rows of a persisted database sequentially in ascending order of
+ * their resource ids without loading the database into memory. In contrast to
+ * {@link StatisticsDB#forEachRow}, the caller pulls the rows one by one, so
+ * that the rows of several databases can be merged. Rows without non-zero
+ * frequencies are skipped.
+ *
+ */
+abstract class StatisticsRowCursor implements AutoCloseable {
+
+  protected final DataInputStream input;
+
+  protected final long[] frequencies;
+
+  protected long resourceId;
+
+  protected StatisticsRowCursor(File file, int sizeOfRow) throws IOException {
+    input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    frequencies = new long[sizeOfRow];
+  }
+
+  /**
+   * For cursors that read several files.
+   */
+  protected StatisticsRowCursor(int sizeOfRow) {
+    input = null;
+    frequencies = new long[sizeOfRow];
+  }
+
+  /**
+   * @param statisticsDir
+   *          {@link File} the directory of a closed database
+   * @return {@link StatisticsRowCursor} positioned before the first row
+   * @throws IllegalArgumentException
+   *           if the directory does not contain a database or if the database
+   *           was not closed properly
+   */
+  public static StatisticsRowCursor open(File statisticsDir) {
+    StatisticsDBMetadata metadata = StatisticsDBMetadata.read(statisticsDir);
+    if (metadata == null) {
+      throw new IllegalArgumentException(
+              "The directory " + statisticsDir + " does not contain a statistics database.");
+    }
+    if (StatisticsDBMetadata.isModified(statisticsDir)) {
+      throw new IllegalArgumentException("The statistics database in " + statisticsDir
+              + " was not closed properly.");
+    }
+    int sizeOfRow = metadata.getNumberOfChunks() * metadata.getTriplePositions().length;
+    File statisticsFile = new File(statisticsDir, metadata.getEncoding().getFileName());
+    try {
+      switch (metadata.getEncoding()) {
+        case ROWS:
+          return new RowsCursor(statisticsFile, sizeOfRow);
+        case SPARSE:
+          return new SparseCursor(statisticsFile, sizeOfRow);
+        case COMPACT:
+          return new CompactCursor(statisticsFile,
+                  new File(statisticsDir, StatisticsDBCompactImpl.INDEX_FILE_NAME), sizeOfRow);
+        case SHARDED:
+          try (DataInputStream index = new DataInputStream(
+                  new BufferedInputStream(new FileInputStream(statisticsFile)));) {
+            return StatisticsRowCursor.openShards(statisticsDir, metadata.getNumberOfChunks(),
+                    metadata.getTriplePositions().length, index.readInt(), index.readInt());
+          }
+        default:
+          throw new IllegalArgumentException("The rows of the encoding "
+                  + metadata.getEncoding() + " in " + statisticsDir + " cannot be read.");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Opens the shard files of a {@link StatisticsDBShardedImpl}, which may still
+   * be open as long as it is not modified while the cursor is used.
+   *
+   * @param statisticsDir
+   * @param numberOfChunks
+   * @param numberOfTriplePositions
+   * @param numberOfShards
+   *          <code>int</code> the number of shards per triple position
+   * @param resourcesPerRange
+   *          <code>int</code> the number of consecutive resource ids per shard
+   * @return {@link StatisticsRowCursor} positioned before the first row
+   */
+  static StatisticsRowCursor openShards(File statisticsDir, int numberOfChunks,
+          int numberOfTriplePositions, int numberOfShards, int resourcesPerRange)
+          throws IOException {
+    return new ShardedCursor(statisticsDir, numberOfChunks, numberOfTriplePositions,
+            numberOfShards, resourcesPerRange);
+  }
+
+  /**
+   * @return <code>true</code> if the cursor was moved to the next row or
+   *         <code>false</code> if all rows have been read
+   */
+  public abstract boolean next() throws IOException;
+
+  public long getResourceId() {
+    return resourceId;
+  }
+
+  /**
+   * @return <code>long[]</code> the frequencies of the current row in the
+   *         order of {@link StatisticsDB#getFrequencies(long)}. The array is
+   *         reused for the following rows.
+   */
+  public long[] getFrequencies() {
+    return frequencies;
+  }
+
+  protected boolean isEmpty() {
+    for (long frequency : frequencies) {
+      if (frequency != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void close() {
+    if (input == null) {
+      return;
+    }
+    try {
+      input.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a file of {@link Encoding#ROWS}.
+   */
+  private static class RowsCursor extends StatisticsRowCursor {
+
+    private final long numberOfCells;
+
+    private long nextCell;
+
+    public RowsCursor(File statisticsFile, int sizeOfRow) throws IOException {
+      super(statisticsFile, sizeOfRow);
+      numberOfCells = statisticsFile.length() / Long.BYTES;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      while (nextCell < numberOfCells) {
+        resourceId = (nextCell / frequencies.length) + 1;
+        for (int i = 0; i < frequencies.length; i++) {
+          frequencies[i] = nextCell < numberOfCells ? input.readLong() : 0;
+          nextCell++;
+        }
+        if (!isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  /**
+   * Reads a file of {@link Encoding#SPARSE}.
+   */
+  private static class SparseCursor extends StatisticsRowCursor {
+
+    private long numberOfRemainingRows;
+
+    public SparseCursor(File statisticsFile, int sizeOfRow) throws IOException {
+      super(statisticsFile, sizeOfRow);
+      numberOfRemainingRows = NumberConversion.readVByte(input);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      while (numberOfRemainingRows > 0) {
+        numberOfRemainingRows--;
+        resourceId += NumberConversion.readVByte(input);
+        Arrays.fill(frequencies, 0);
+        long numberOfCells = NumberConversion.readVByte(input);
+        for (long i = 0; i < numberOfCells; i++) {
+          int column = (int) NumberConversion.readVByte(input);
+          frequencies[column] = NumberConversion.readVByte(input);
+        }
+        if (!isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+  /**
+   * Reads the files of {@link Encoding#COMPACT}. The index is read in parallel
+   * to the data file, since the rows are stored in the order of the index.
+   */
+  private static class CompactCursor extends StatisticsRowCursor {
+
+    private final DataInputStream index;
+
+    private final long numberOfResources;
+
+    public CompactCursor(File dataFile, File indexFile, int sizeOfRow) throws IOException {
+      super(dataFile, sizeOfRow);
+      index = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+      numberOfResources = indexFile.length() / Long.BYTES;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      while (resourceId < numberOfResources) {
+        resourceId++;
+        int widthCode = StatisticsDBCompactImpl.getWidthCodeOfDescriptor(index.readLong());
+        if (widthCode == 0) {
+          continue;
+        }
+        int width = StatisticsDBCompactImpl.getWidth(widthCode);
+        for (int i = 0; i < frequencies.length; i++) {
+          long value = 0;
+          for (int j = 0; j < width; j++) {
+            value = (value << Byte.SIZE) | input.readUnsignedByte();
+          }
+          frequencies[i] = value;
+        }
+        if (!isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void close() {
+      try {
+        index.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } finally {
+        super.close();
+      }
+    }
+
+  }
+
+  /**
+   * Reads the shard files of {@link Encoding#SHARDED}. Since the rows of a
+   * shard are stored in ascending order of their resource ids, each shard file
+   * is read sequentially while the rows of all shards are interleaved.
+   */
+  private static class ShardedCursor extends StatisticsRowCursor {
+
+    private final int numberOfChunks;
+
+    private final int numberOfShards;
+
+    private final int resourcesPerRange;
+
+    private final DataInputStream[][] shards;
+
+    private final long[][] numberOfCells;
+
+    private long numberOfResources;
+
+    public ShardedCursor(File statisticsDir, int numberOfChunks, int numberOfTriplePositions,
+            int numberOfShards, int resourcesPerRange) throws IOException {
+      super(numberOfChunks * numberOfTriplePositions);
+      this.numberOfChunks = numberOfChunks;
+      this.numberOfShards = numberOfShards;
+      this.resourcesPerRange = resourcesPerRange;
+      shards = new DataInputStream[numberOfTriplePositions][numberOfShards];
+      numberOfCells = new long[numberOfTriplePositions][numberOfShards];
+      try {
+        for (int posI = 0; posI < numberOfTriplePositions; posI++) {
+          for (int shardI = 0; shardI < numberOfShards; shardI++) {
+            File shardFile = StatisticsDBShardedImpl.getShardFile(statisticsDir, posI, shardI);
+            numberOfCells[posI][shardI] = shardFile.length() / Long.BYTES;
+            if (numberOfCells[posI][shardI] == 0) {
+              continue;
+            }
+            shards[posI][shardI] = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(shardFile), 1 << 16));
+            long lastRow = (numberOfCells[posI][shardI] - 1) / numberOfChunks;
+            long lastRange = ((lastRow / resourcesPerRange) * numberOfShards) + shardI;
+            numberOfResources = Math.max(numberOfResources,
+                    (lastRange * resourcesPerRange) + (lastRow % resourcesPerRange) + 1);
+          }
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      while (resourceId < numberOfResources) {
+        resourceId++;
+        int shardI = StatisticsDBShardedImpl.getShardNumber(resourceId, numberOfShards,
+                resourcesPerRange);
+        long firstCell = StatisticsDBShardedImpl.getRowInShard(resourceId, numberOfShards,
+                resourcesPerRange) * numberOfChunks;
+        for (int posI = 0; posI < shards.length; posI++) {
+          for (int chunkI = 0; chunkI < numberOfChunks; chunkI++) {
+            boolean isStored = (firstCell + chunkI) < numberOfCells[posI][shardI];
+            frequencies[(posI * numberOfChunks) + chunkI] = isStored
+                    ? shards[posI][shardI].readLong()
+                    : 0;
+          }
+        }
+        if (!isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void close() {
+      IOException exception = null;
+      for (DataInputStream[] shardsOfPosition : shards) {
+        for (DataInputStream shard : shardsOfPosition) {
+          if (shard == null) {
+            continue;
+          }
+          try {
+            shard.close();
+          } catch (IOException e) {
+            exception = e;
+          }
+        }
+      }
+      if (exception != null) {
+        throw new RuntimeException(exception);
+      }
+    }
+
+  }
+
+}
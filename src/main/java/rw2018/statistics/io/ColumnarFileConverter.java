@@ -0,0 +1,54 @@
+package rw2018.statistics.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts gzip compressed and v-byte encoded chunks of format
+ * {@link EncodingFileFormat#EEE} into the {@link ColumnarFileFormat}.
+ * 
+ */
+public class ColumnarFileConverter {
+
+  public static void convert(File encodedChunk, File columnarChunk) throws IOException {
+    try (EncodedFileInputStream input = new EncodedFileInputStream(EncodingFileFormat.EEE,
+            encodedChunk);
+            ColumnarFileOutputStream output = new ColumnarFileOutputStream(columnarChunk);) {
+      EncodedStatement statement = new EncodedStatement();
+      while (true) {
+        try {
+          input.read(statement);
+        } catch (EOFException e) {
+          // the input is read completely
+          break;
+        }
+        output.writeStatement(statement);
+      }
+    }
+  }
+
+  /**
+   * Converts all chunks of the input directory into columnar chunks with the
+   * same file names in the output directory.
+   * 
+   * @param args
+   *          the input directory and the output directory
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("java " + ColumnarFileConverter.class + " <inputDir> <outputDir>");
+      return;
+    }
+    File inputDir = new File(args[0]);
+    File outputDir = new File(args[1]);
+    if (!outputDir.exists()) {
+      outputDir.mkdirs();
+    }
+    for (File chunk : inputDir.listFiles()) {
+      ColumnarFileConverter.convert(chunk, new File(outputDir, chunk.getName()));
+    }
+  }
+
+}
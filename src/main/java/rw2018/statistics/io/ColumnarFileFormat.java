@@ -0,0 +1,51 @@
+package rw2018.statistics.io;
+
+/**
+ * Describes the uncompressed, columnar chunk format that is written by
+ * {@link ColumnarFileOutputStream} and read by {@link ColumnarFileInputStream}.
+ * A file consists of the following parts:
+ * <ol>
+ * <li>header: the 4-byte {@link #MAGIC_NUMBER}, the 4-byte {@link #VERSION},
+ * the 8-byte number of statements <code>n</code>, one byte each for the widths
+ * in bytes of the subject, property and object column and the 8-byte length of
+ * the containment data</li>
+ * <li>subject column: <code>n</code> unsigned big endian values with the
+ * subject width</li>
+ * <li>property column: <code>n</code> unsigned big endian values with the
+ * property width</li>
+ * <li>object column: <code>n</code> unsigned big endian values with the object
+ * width</li>
+ * <li>containment length column: <code>n</code> 2-byte values</li>
+ * <li>containment data: the concatenated containments of all statements</li>
+ * </ol>
+ * The width of each id column is the smallest number of bytes that is
+ * sufficient to store the largest id of the column.
+ * 
+ */
+public final class ColumnarFileFormat {
+
+  /**
+   * The bytes <code>RWCL</code>. Gzip compressed files start with
+   * <code>0x1f8b</code> and can therefore be distinguished from columnar files.
+   */
+  public static final int MAGIC_NUMBER = 0x5257434c;
+
+  public static final int VERSION = 1;
+
+  public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + 3
+          + Long.BYTES;
+
+  private ColumnarFileFormat() {
+  }
+
+  /**
+   * @param value
+   * @return <code>int</code> the minimal number of bytes required to store the
+   *         unsigned value <code>value</code>
+   */
+  public static int getWidth(long value) {
+    int numberOfBits = Long.SIZE - Long.numberOfLeadingZeros(value);
+    return Math.max(1, (numberOfBits + Byte.SIZE - 1) / Byte.SIZE);
+  }
+
+}
@@ -0,0 +1,127 @@
+package rw2018.statistics.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads a file of the {@link ColumnarFileFormat} through read-only memory
+ * mapped segments. No decompression or v-byte decoding is required.
+ * 
+ */
+public class ColumnarFileInputStream implements EncodedStatementInput {
+
+  private static final int SEGMENT_BITS = 30;
+
+  private static final long SEGMENT_SIZE = 1l << SEGMENT_BITS;
+
+  private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final RandomAccessFile file;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer[] segments;
+
+  private final long numberOfStatements;
+
+  private final int[] widths;
+
+  private final long[] columnStarts;
+
+  private long nextStatement;
+
+  private long nextContainment;
+
+  public ColumnarFileInputStream(File inputFile) throws IOException {
+    file = new RandomAccessFile(inputFile, "r");
+    try {
+      if (file.readInt() != ColumnarFileFormat.MAGIC_NUMBER) {
+        throw new IOException(inputFile + " is not a columnar file.");
+      }
+      int version = file.readInt();
+      if (version != ColumnarFileFormat.VERSION) {
+        throw new IOException("The columnar file " + inputFile + " has the unsupported version "
+                + version + ".");
+      }
+      numberOfStatements = file.readLong();
+      widths = new int[] { file.readByte(), file.readByte(), file.readByte(), Short.BYTES };
+      file.readLong();
+      columnStarts = new long[widths.length + 1];
+      columnStarts[0] = ColumnarFileFormat.HEADER_SIZE;
+      for (int i = 0; i < widths.length; i++) {
+        columnStarts[i + 1] = columnStarts[i] + (numberOfStatements * widths[i]);
+      }
+      channel = file.getChannel();
+      segments = new MappedByteBuffer[(int) ((channel.size() + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+    nextStatement = 0;
+    nextContainment = columnStarts[widths.length];
+  }
+
+  public long getNumberOfStatements() {
+    return numberOfStatements;
+  }
+
+  @Override
+  public void read(EncodedStatement statement) throws EOFException, IOException {
+    if (nextStatement >= numberOfStatements) {
+      throw new EOFException();
+    }
+    long subject = readUnsigned(columnStarts[0] + (nextStatement * widths[0]), widths[0]);
+    long property = readUnsigned(columnStarts[1] + (nextStatement * widths[1]), widths[1]);
+    long object = readUnsigned(columnStarts[2] + (nextStatement * widths[2]), widths[2]);
+    statement.set(subject, property, object);
+    int length = (int) readUnsigned(columnStarts[3] + (nextStatement * widths[3]), widths[3]);
+    byte[] containment = statement.prepareContainment(length);
+    for (int i = 0; i < length; i++) {
+      containment[i] = getSegment(nextContainment).get((int) (nextContainment & SEGMENT_MASK));
+      nextContainment++;
+    }
+    nextStatement++;
+  }
+
+  private long readUnsigned(long position, int width) throws IOException {
+    MappedByteBuffer segment = getSegment(position);
+    int positionInSegment = (int) (position & SEGMENT_MASK);
+    long result = 0;
+    if ((positionInSegment + width) <= segment.limit()) {
+      for (int i = 0; i < width; i++) {
+        result = (result << Byte.SIZE) | (segment.get(positionInSegment + i) & 0xff);
+      }
+    } else {
+      // the value spans two segments
+      for (int i = 0; i < width; i++) {
+        long bytePosition = position + i;
+        result = (result << Byte.SIZE)
+                | (getSegment(bytePosition).get((int) (bytePosition & SEGMENT_MASK)) & 0xff);
+      }
+    }
+    return result;
+  }
+
+  private MappedByteBuffer getSegment(long position) throws IOException {
+    int segmentIndex = (int) (position >>> SEGMENT_BITS);
+    MappedByteBuffer segment = segments[segmentIndex];
+    if (segment == null) {
+      long start = ((long) segmentIndex) << SEGMENT_BITS;
+      segment = channel.map(MapMode.READ_ONLY, start,
+              Math.min(SEGMENT_SIZE, channel.size() - start));
+      segments[segmentIndex] = segment;
+    }
+    return segment;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+}
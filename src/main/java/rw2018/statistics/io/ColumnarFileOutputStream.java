@@ -0,0 +1,128 @@
+package rw2018.statistics.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes statements of format {@link EncodingFileFormat#EEE} into a file of
+ * the {@link ColumnarFileFormat}. Since the column widths are only known after
+ * the last statement, the columns are spooled into temporary files next to the
+ * output file. The final file is assembled during {@link #close()}.
+ * 
+ */
+public class ColumnarFileOutputStream implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File outputFile;
+
+  private final File[] columnFiles;
+
+  private final DataOutputStream[] columns;
+
+  private final long[] maxValues;
+
+  private long numberOfStatements;
+
+  private long containmentLength;
+
+  public ColumnarFileOutputStream(File outputFile) throws FileNotFoundException, IOException {
+    this.outputFile = outputFile;
+    // subject, property, object, containment lengths and containment data
+    columnFiles = new File[5];
+    columns = new DataOutputStream[columnFiles.length];
+    for (int i = 0; i < columnFiles.length; i++) {
+      columnFiles[i] = new File(outputFile.getAbsolutePath() + ".column" + i);
+      columns[i] = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(columnFiles[i]), BUFFER_SIZE));
+    }
+    maxValues = new long[3];
+  }
+
+  public void writeStatement(Statement statement) throws IOException {
+    if (statement.getFormat() != EncodingFileFormat.EEE) {
+      throw new IllegalArgumentException("Only statements in format " + EncodingFileFormat.EEE
+              + " can be stored in columnar files.");
+    }
+    write(statement.getSubjectAsLong(), statement.getPropertyAsLong(),
+            statement.getObjectAsLong(), statement.getContainment(),
+            statement.getContainment().length);
+  }
+
+  public void writeStatement(EncodedStatement statement) throws IOException {
+    write(statement.getSubject(), statement.getProperty(), statement.getObject(),
+            statement.getContainment(), statement.getContainmentLength());
+  }
+
+  private void write(long subject, long property, long object, byte[] containment,
+          int containmentLength) throws IOException {
+    columns[0].writeLong(subject);
+    columns[1].writeLong(property);
+    columns[2].writeLong(object);
+    columns[3].writeShort(containmentLength);
+    columns[4].write(containment, 0, containmentLength);
+    maxValues[0] = maxValues[0] | subject;
+    maxValues[1] = maxValues[1] | property;
+    maxValues[2] = maxValues[2] | object;
+    numberOfStatements++;
+    this.containmentLength += containmentLength;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (DataOutputStream column : columns) {
+      column.close();
+    }
+    try (DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE));) {
+      int[] widths = new int[maxValues.length];
+      for (int i = 0; i < widths.length; i++) {
+        widths[i] = ColumnarFileFormat.getWidth(maxValues[i]);
+      }
+      output.writeInt(ColumnarFileFormat.MAGIC_NUMBER);
+      output.writeInt(ColumnarFileFormat.VERSION);
+      output.writeLong(numberOfStatements);
+      for (int width : widths) {
+        output.writeByte(width);
+      }
+      output.writeLong(containmentLength);
+      for (int i = 0; i < widths.length; i++) {
+        try (DataInputStream column = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(columnFiles[i]), BUFFER_SIZE));) {
+          for (long j = 0; j < numberOfStatements; j++) {
+            long value = column.readLong();
+            for (int shift = (widths[i] - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+              output.write((int) (value >>> shift));
+            }
+          }
+        }
+      }
+      copy(columnFiles[3], output);
+      copy(columnFiles[4], output);
+    } finally {
+      for (File columnFile : columnFiles) {
+        columnFile.delete();
+      }
+    }
+  }
+
+  private void copy(File file, OutputStream output) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream input = new FileInputStream(file);) {
+      int readBytes;
+      while ((readBytes = input.read(buffer)) >= 0) {
+        output.write(buffer, 0, readBytes);
+      }
+    }
+  }
+
+}
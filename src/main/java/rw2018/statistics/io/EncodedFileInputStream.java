@@ -18,13 +18,12 @@
  */
 package rw2018.statistics.io;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import java.util.zip.GZIPInputStream;
 
@@ -32,16 +31,31 @@ import rw2018.statistics.utilities.NumberConversion;
 
 /**
  * Reads data from a file respecting the {@link EncodingFileFormat}. The v-byte
- * encoded long values in the input file are decoded.
+ * encoded long values in the input file are decoded. The decompressed data is
+ * read in large blocks into a local buffer from which the v-byte values are
+ * decoded directly. Bounds are only checked at the edges of a block.
  * 
  * @author Daniel Janke &lt;danijankATuni-koblenz.de&gt;
  *
  */
-public class EncodedFileInputStream implements AutoCloseable, Iterable<Statement> {
+public class EncodedFileInputStream implements EncodedStatementInput, Iterable<Statement> {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The maximal number of bytes of a v-byte encoded long value.
+   */
+  private static final int MAX_VBYTE_LENGTH = ((Long.SIZE - 1) / 7) + 1;
 
   private final EncodingFileFormat inputFormat;
 
-  private final DataInputStream input;
+  private final InputStream input;
+
+  private final byte[] buffer;
+
+  private int position;
+
+  private int limit;
 
   private final File inputFile;
 
@@ -62,8 +76,10 @@ public class EncodedFileInputStream implements AutoCloseable, Iterable<Statement
     super();
     this.inputFile = inputFile;
     this.inputFormat = inputFormat;
-    input = new DataInputStream(
-            new BufferedInputStream(new GZIPInputStream(new FileInputStream(inputFile))));
+    input = new GZIPInputStream(new FileInputStream(inputFile), BUFFER_SIZE);
+    buffer = new byte[BUFFER_SIZE];
+    position = 0;
+    limit = 0;
   }
 
   /**
@@ -78,29 +94,119 @@ public class EncodedFileInputStream implements AutoCloseable, Iterable<Statement
     byte[] property = inputFormat.isPropertyEncoded() ? readEncodedLong() : readString();
     byte[] object = inputFormat.isObjectEncoded() ? readEncodedLong() : readString();
 
-    int length = input.readShort() & 0xff_ff;
+    int length = readUnsignedShort();
     byte[] containment = new byte[length];
-    input.readFully(containment);
+    readFully(containment, 0, length);
     return Statement.getStatement(inputFormat, subject, property, object, containment);
   }
 
+  /**
+   * Reads the next statement of an {@link EncodingFileFormat#EEE} file into
+   * <code>statement</code> without allocating any objects, unless the
+   * containment array of <code>statement</code> has to grow.
+   * 
+   * @param statement
+   *          {@link EncodedStatement} that is overwritten with the content of
+   *          the next statement
+   * @throws EOFException
+   *           if the end of the file is reached
+   * @throws IOException
+   */
+  @Override
+  public void read(EncodedStatement statement) throws EOFException, IOException {
+    if (inputFormat != EncodingFileFormat.EEE) {
+      throw new UnsupportedOperationException("Only files in format " + EncodingFileFormat.EEE
+              + " can be read as encoded statements. The format of " + inputFile + " is "
+              + inputFormat + ".");
+    }
+    long subject = readVByteLong();
+    long property = readVByteLong();
+    long object = readVByteLong();
+    statement.set(subject, property, object);
+
+    int length = readUnsignedShort();
+    readFully(statement.prepareContainment(length), 0, length);
+  }
+
   private byte[] readString() throws IOException {
-    int length = input.readInt();
+    int length = (readUnsignedShort() << Short.SIZE) | readUnsignedShort();
     byte[] stringContent = new byte[length];
-    input.readFully(stringContent);
+    readFully(stringContent, 0, length);
     return stringContent;
   }
 
   private byte[] readEncodedLong() throws IOException {
+    return NumberConversion.long2bytes(readVByteLong());
+  }
+
+  private long readVByteLong() throws IOException {
+    if ((limit - position) < MAX_VBYTE_LENGTH) {
+      return readVByteLongAtBlockEdge();
+    }
+    byte[] buffer = this.buffer;
+    int position = this.position;
     long result = 0;
     byte currentBlock;
     do {
-      currentBlock = input.readByte();
-      result = result << 7;
-      long value = currentBlock & 0b0111_1111;
-      result = result | value;
+      currentBlock = buffer[position++];
+      result = (result << 7) | (currentBlock & 0b0111_1111);
     } while (currentBlock >= 0);
-    return NumberConversion.long2bytes(result);
+    this.position = position;
+    return result;
+  }
+
+  private long readVByteLongAtBlockEdge() throws IOException {
+    long result = 0;
+    byte currentBlock;
+    do {
+      currentBlock = readByte();
+      result = (result << 7) | (currentBlock & 0b0111_1111);
+    } while (currentBlock >= 0);
+    return result;
+  }
+
+  private byte readByte() throws IOException {
+    if (position == limit) {
+      fillBuffer();
+    }
+    return buffer[position++];
+  }
+
+  private int readUnsignedShort() throws IOException {
+    return ((readByte() & 0xff) << Byte.SIZE) | (readByte() & 0xff);
+  }
+
+  private void readFully(byte[] destination, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (position == limit) {
+        fillBuffer();
+      }
+      int numberOfBytes = Math.min(length, limit - position);
+      System.arraycopy(buffer, position, destination, offset, numberOfBytes);
+      position += numberOfBytes;
+      offset += numberOfBytes;
+      length -= numberOfBytes;
+    }
+  }
+
+  /**
+   * Replaces the completely consumed buffer with the next block of
+   * decompressed bytes.
+   * 
+   * @throws EOFException
+   *           if the end of the file is reached
+   * @throws IOException
+   */
+  private void fillBuffer() throws IOException {
+    int readBytes;
+    do {
+      readBytes = input.read(buffer, 0, buffer.length);
+    } while (readBytes == 0);
+    if (readBytes < 0) {
+      throw new EOFException();
+    }
+    position = 0;
+    limit = readBytes;
   }
 
   @Override
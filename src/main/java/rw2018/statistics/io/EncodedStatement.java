@@ -0,0 +1,81 @@
+package rw2018.statistics.io;
+
+import java.util.Arrays;
+
+/**
+ * A mutable statement of an {@link EncodingFileFormat#EEE} file whose subject,
+ * property and object are stored as primitive long values. An instance is
+ * meant to be reused for all statements of a file, see
+ * {@link EncodedFileInputStream#read(EncodedStatement)}. The containment array
+ * is only reallocated if a longer containment occurs. Thus, only its first
+ * {@link #getContainmentLength()} bytes are valid.
+ * 
+ */
+public class EncodedStatement {
+
+  private long subject;
+
+  private long property;
+
+  private long object;
+
+  private byte[] containment;
+
+  private int containmentLength;
+
+  public EncodedStatement() {
+    containment = new byte[0];
+  }
+
+  public long getSubject() {
+    return subject;
+  }
+
+  public long getProperty() {
+    return property;
+  }
+
+  public long getObject() {
+    return object;
+  }
+
+  /**
+   * @return <code>byte[]</code> whose first {@link #getContainmentLength()}
+   *         bytes are the containment of this statement
+   */
+  public byte[] getContainment() {
+    return containment;
+  }
+
+  public int getContainmentLength() {
+    return containmentLength;
+  }
+
+  void set(long subject, long property, long object) {
+    this.subject = subject;
+    this.property = property;
+    this.object = object;
+  }
+
+  /**
+   * Ensures that the containment array can store <code>length</code> bytes
+   * and sets the containment length.
+   * 
+   * @param length
+   * @return <code>byte[]</code> the containment array
+   */
+  byte[] prepareContainment(int length) {
+    if (containment.length < length) {
+      containment = new byte[Math.max(length, containment.length * 2)];
+    }
+    containmentLength = length;
+    return containment;
+  }
+
+  @Override
+  public String toString() {
+    return "EncodedStatement(" + subject + ", " + property + ", " + object + ", "
+            + Arrays.toString(Arrays.copyOf(containment, containmentLength)) + ")";
+  }
+
+}
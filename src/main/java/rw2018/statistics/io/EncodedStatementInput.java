@@ -0,0 +1,56 @@
+package rw2018.statistics.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads statements of format {@link EncodingFileFormat#EEE} as
+ * {@link EncodedStatement}s.
+ * 
+ */
+public interface EncodedStatementInput extends AutoCloseable {
+
+  /**
+   * Reads the next statement into <code>statement</code>.
+   * 
+   * @param statement
+   *          {@link EncodedStatement} that is overwritten with the content of
+   *          the next statement
+   * @throws EOFException
+   *           if the end of the file is reached
+   * @throws IOException
+   */
+  public void read(EncodedStatement statement) throws EOFException, IOException;
+
+  @Override
+  public void close() throws IOException;
+
+  /**
+   * Opens <code>chunk</code> with the reader that fits its file header. Files
+   * starting with {@link ColumnarFileFormat#MAGIC_NUMBER} are read with
+   * {@link ColumnarFileInputStream}, all other files are expected to be gzip
+   * compressed and v-byte encoded files of format
+   * {@link EncodingFileFormat#EEE}.
+   * 
+   * @param chunk
+   * @return {@link EncodedStatementInput}
+   * @throws IOException
+   */
+  public static EncodedStatementInput open(File chunk) throws IOException {
+    int magicNumber = 0;
+    if (chunk.length() >= Integer.BYTES) {
+      try (DataInputStream input = new DataInputStream(new FileInputStream(chunk));) {
+        magicNumber = input.readInt();
+      }
+    }
+    if (magicNumber == ColumnarFileFormat.MAGIC_NUMBER) {
+      return new ColumnarFileInputStream(chunk);
+    } else {
+      return new EncodedFileInputStream(EncodingFileFormat.EEE, chunk);
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+package rw2018.statistics.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import rw2018.statistics.StatisticsDB;
+import rw2018.statistics.StatisticsRowVisitor;
+import rw2018.statistics.TriplePosition;
+import rw2018.statistics.utilities.NumberConversion;
+
+/**
+ * Streams the table of a {@link StatisticsDB} into a {@link Writer} or an
+ * {@link OutputStream} without building it in memory. The rows are obtained
+ * from {@link StatisticsDB#forEachRow(StatisticsRowVisitor)}, so that only
+ * resources with at least one non-zero frequency are exported.
+ * 
+ * The CSV format is the format of {@link StatisticsDB#prettyPrint()}: a header
+ * line followed by one line <code>resource:id,f1,f2,...</code> per resource.
+ * 
+ * The binary format consists of the 4-byte {@link #MAGIC_NUMBER}, the 1-byte
+ * {@link #VERSION}, the number of chunks, the number of triple positions and
+ * the ordinal of each triple position. Each row consists of the difference to
+ * the previous resource id followed by its frequencies. The table ends with
+ * the difference 0. Except for the magic number and the version, all values
+ * are v-byte encoded.
+ *
+ */
+public class StatisticsExport {
+
+  public static final int MAGIC_NUMBER = 0x52575354;
+
+  public static final byte VERSION = 1;
+
+  private StatisticsExport() {
+  }
+
+  public static void writeCsv(StatisticsDB statisticsDB, Writer writer) {
+    try {
+      writer.write("RessourceId");
+      for (TriplePosition pos : statisticsDB.getTriplePositions()) {
+        for (int chunkI = 0; chunkI < statisticsDB.getNumberOfChunks(); chunkI++) {
+          writer.write(",");
+          writer.write(pos.toString());
+          writer.write("-chunk");
+          writer.write(String.valueOf(chunkI));
+        }
+      }
+      statisticsDB.forEachRow((resourceId, frequencies) -> {
+        try {
+          writer.write("\nresource:");
+          writer.write(String.valueOf(resourceId));
+          for (long frequency : frequencies) {
+            writer.write(",");
+            writer.write(String.valueOf(frequency));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (UncheckedIOException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  public static void writeBinary(StatisticsDB statisticsDB, OutputStream outputStream) {
+    DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(outputStream, 1 << 16));
+    try {
+      output.writeInt(MAGIC_NUMBER);
+      output.writeByte(VERSION);
+      NumberConversion.writeVByte(output, statisticsDB.getNumberOfChunks());
+      TriplePosition[] triplePositions = statisticsDB.getTriplePositions();
+      NumberConversion.writeVByte(output, triplePositions.length);
+      for (TriplePosition triplePosition : triplePositions) {
+        NumberConversion.writeVByte(output, triplePosition.ordinal());
+      }
+      long[] previousResourceId = new long[1];
+      statisticsDB.forEachRow((resourceId, frequencies) -> {
+        try {
+          NumberConversion.writeVByte(output, resourceId - previousResourceId[0]);
+          for (long frequency : frequencies) {
+            NumberConversion.writeVByte(output, frequency);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        previousResourceId[0] = resourceId;
+      });
+      NumberConversion.writeVByte(output, 0);
+      output.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (UncheckedIOException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Reads a table written by {@link #writeBinary(StatisticsDB, OutputStream)}.
+   * 
+   * @param inputStream
+   * @param visitor
+   *          {@link StatisticsRowVisitor} that receives the rows in ascending
+   *          order of the resource ids
+   * @return <code>int</code> the number of chunks of the table
+   */
+  public static int readBinary(InputStream inputStream, StatisticsRowVisitor visitor) {
+    DataInputStream input = new DataInputStream(inputStream);
+    try {
+      if (input.readInt() != MAGIC_NUMBER) {
+        throw new IllegalArgumentException("The input is not an exported statistics table.");
+      }
+      byte version = input.readByte();
+      if (version > VERSION) {
+        throw new IllegalArgumentException(
+                "The exported statistics table has the unsupported version " + version + ".");
+      }
+      int numberOfChunks = (int) NumberConversion.readVByte(input);
+      int numberOfTriplePositions = (int) NumberConversion.readVByte(input);
+      for (int i = 0; i < numberOfTriplePositions; i++) {
+        NumberConversion.readVByte(input);
+      }
+      long[] frequencies = new long[numberOfChunks * numberOfTriplePositions];
+      long resourceId = 0;
+      while (true) {
+        long delta = NumberConversion.readVByte(input);
+        if (delta == 0) {
+          break;
+        }
+        resourceId += delta;
+        for (int i = 0; i < frequencies.length; i++) {
+          frequencies[i] = NumberConversion.readVByte(input);
+        }
+        visitor.visitRow(resourceId, frequencies);
+      }
+      return numberOfChunks;
+    } catch (EOFException e) {
+      throw new IllegalArgumentException("The exported statistics table is truncated.", e);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package rw2018.statistics.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional reads and writes of a {@link FileChannel} that do not use or
+ * change the position of the channel. Thus, several threads may read the same
+ * channel concurrently. Each method usually results in exactly one
+ * <code>pread</code> or <code>pwrite</code> system call.
+ *
+ */
+public class ChannelIO {
+
+  /**
+   * Reads from <code>position</code> until <code>buffer</code> is full or the
+   * end of the file is reached.
+   *
+   * @param channel
+   * @param buffer
+   *          {@link ByteBuffer} that is filled from its position to its limit
+   * @param position
+   *          <code>long</code> the file position of the first byte
+   * @return <code>int</code> the number of read bytes, which is smaller than
+   *         the remaining bytes of <code>buffer</code> only at the end of the
+   *         file
+   * @throws IOException
+   */
+  public static int readFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    int readBytes = 0;
+    while (buffer.hasRemaining()) {
+      int numberOfBytes = channel.read(buffer, position + readBytes);
+      if (numberOfBytes < 0) {
+        break;
+      }
+      readBytes += numberOfBytes;
+    }
+    return readBytes;
+  }
+
+  /**
+   * Writes all remaining bytes of <code>buffer</code> starting at
+   * <code>position</code>.
+   */
+  public static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    long writtenBytes = 0;
+    while (buffer.hasRemaining()) {
+      writtenBytes += channel.write(buffer, position + writtenBytes);
+    }
+  }
+
+}
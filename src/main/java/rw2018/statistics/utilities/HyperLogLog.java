@@ -0,0 +1,144 @@
+package rw2018.statistics.utilities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Estimates the number of distinct values that have been added with a
+ * HyperLogLog sketch (P. Flajolet, É. Fusy, O. Gandouet and F. Meunier,
+ * "HyperLogLog: the analysis of a near-optimal cardinality estimation
+ * algorithm", 2007). The sketch consists of <code>2^precision</code> one-byte
+ * registers. The relative standard error of {@link #estimate()} is about
+ * <code>1.04 / sqrt(2^precision)</code>, e.g., 1.6% for the default precision
+ * of 12. Small cardinalities are estimated by linear counting. Since the values
+ * are hashed with 64 bits, no correction for large cardinalities is required.
+ *
+ * Adding a value that has been added before does not change the sketch.
+ * Sketches with the same precision are merged by
+ * {@link #merge(HyperLogLog)}, which results in the sketch of the union of
+ * the added values. {@link #add(long)} may be called by several threads
+ * concurrently. Since a register only increases a few times, the monitor of
+ * the sketch is only acquired if a register changes.
+ *
+ */
+public class HyperLogLog {
+
+  public static final int DEFAULT_PRECISION = 12;
+
+  public static final int MINIMAL_PRECISION = 4;
+
+  public static final int MAXIMAL_PRECISION = 18;
+
+  private final int precision;
+
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  public HyperLogLog(int precision) {
+    if ((precision < MINIMAL_PRECISION) || (precision > MAXIMAL_PRECISION)) {
+      throw new IllegalArgumentException("The precision " + precision + " must be between "
+              + MINIMAL_PRECISION + " and " + MAXIMAL_PRECISION + ".");
+    }
+    this.precision = precision;
+    registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public void add(long value) {
+    // finalizer of MurmurHash3
+    long hash = value;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdl;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53l;
+    hash ^= hash >>> 33;
+    int index = (int) (hash >>> (Long.SIZE - precision));
+    byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1l << (precision - 1)))
+            + 1);
+    if (rank > registers[index]) {
+      synchronized (this) {
+        if (rank > registers[index]) {
+          registers[index] = rank;
+        }
+      }
+    }
+  }
+
+  /**
+   * After invoking this method, this sketch represents the values added to
+   * this sketch or to <code>other</code>.
+   *
+   * @param other
+   *          {@link HyperLogLog} with the same precision
+   */
+  public synchronized void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("A sketch with precision " + other.precision
+              + " cannot be merged into a sketch with precision " + precision + ".");
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return <code>long</code> the estimated number of distinct added values
+   */
+  public synchronized long estimate() {
+    int numberOfRegisters = registers.length;
+    double sum = 0;
+    int numberOfEmptyRegisters = 0;
+    for (byte register : registers) {
+      sum += Double.longBitsToDouble((1023l - register) << 52);
+      if (register == 0) {
+        numberOfEmptyRegisters++;
+      }
+    }
+    double alpha;
+    switch (numberOfRegisters) {
+      case 16:
+        alpha = 0.673;
+        break;
+      case 32:
+        alpha = 0.697;
+        break;
+      case 64:
+        alpha = 0.709;
+        break;
+      default:
+        alpha = 0.7213 / (1 + (1.079 / numberOfRegisters));
+    }
+    double estimate = (alpha * numberOfRegisters * numberOfRegisters) / sum;
+    if ((estimate <= (2.5 * numberOfRegisters)) && (numberOfEmptyRegisters > 0)) {
+      estimate = numberOfRegisters * Math.log((double) numberOfRegisters / numberOfEmptyRegisters);
+    }
+    return Math.round(estimate);
+  }
+
+  public synchronized HyperLogLog copy() {
+    HyperLogLog copy = new HyperLogLog(precision);
+    System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+    return copy;
+  }
+
+  public synchronized void write(DataOutput output) throws IOException {
+    output.writeByte(precision);
+    output.write(registers);
+  }
+
+  public static HyperLogLog read(DataInput input) throws IOException {
+    HyperLogLog sketch = new HyperLogLog(input.readByte());
+    input.readFully(sketch.registers);
+    return sketch;
+  }
+
+}
@@ -0,0 +1,155 @@
+package rw2018.statistics.utilities;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map with linear probing from positive long keys to
+ * int values. Keys and values are stored in primitive arrays, so no objects
+ * are allocated per entry. The key 0 is reserved to mark empty slots.
+ * 
+ */
+public class LongIntHashMap {
+
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] keys;
+
+  private int[] values;
+
+  private int size;
+
+  private int threshold;
+
+  public LongIntHashMap() {
+    this(16);
+  }
+
+  public LongIntHashMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1)
+            << 1;
+    keys = new long[capacity];
+    values = new int[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param key
+   * @param missingValue
+   * @return <code>int</code> the value of <code>key</code> or
+   *         <code>missingValue</code> if <code>key</code> is not contained
+   */
+  public int get(long key, int missingValue) {
+    int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return missingValue;
+  }
+
+  public void put(long key, int value) {
+    if (key == 0) {
+      throw new IllegalArgumentException("The key 0 is not supported.");
+    }
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (keys[slot] != 0) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    if (size > threshold) {
+      resize();
+    }
+  }
+
+  /**
+   * Removes <code>key</code>. The succeeding entries of its probe sequence are
+   * moved backwards, so that no deletion markers are required.
+   */
+  public void remove(long key) {
+    if (key == 0) {
+      return;
+    }
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (keys[slot] != key) {
+      if (keys[slot] == 0) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    for (int i = (slot + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+      int home = hash(keys[i]) & mask;
+      if (((i - home) & mask) >= ((i - slot) & mask)) {
+        keys[slot] = keys[i];
+        values[slot] = values[i];
+        slot = i;
+      }
+    }
+    keys[slot] = 0;
+    values[slot] = 0;
+    size--;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(values, 0);
+    size = 0;
+  }
+
+  /**
+   * @return <code>long[]</code> all keys in ascending order
+   */
+  public long[] getSortedKeys() {
+    long[] result = new long[size];
+    int i = 0;
+    for (long key : keys) {
+      if (key != 0) {
+        result[i++] = key;
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    threshold = (int) (keys.length * LOAD_FACTOR);
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    // finalizer of MurmurHash3
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdl;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53l;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+}
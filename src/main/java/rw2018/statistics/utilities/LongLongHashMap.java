@@ -0,0 +1,132 @@
+package rw2018.statistics.utilities;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map with linear probing from positive long keys to
+ * long values. Keys and values are stored in primitive arrays, so no objects
+ * are allocated per entry. The key 0 is reserved to mark empty slots.
+ *
+ */
+public class LongLongHashMap {
+
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] keys;
+
+  private long[] values;
+
+  private int size;
+
+  private int threshold;
+
+  public LongLongHashMap() {
+    this(16);
+  }
+
+  public LongLongHashMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1)
+            << 1;
+    keys = new long[capacity];
+    values = new long[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param key
+   * @param missingValue
+   * @return <code>long</code> the value of <code>key</code> or
+   *         <code>missingValue</code> if <code>key</code> is not contained
+   */
+  public long get(long key, long missingValue) {
+    int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return missingValue;
+  }
+
+  /**
+   * Adds <code>delta</code> to the value of <code>key</code>. A missing key
+   * is inserted with value <code>delta</code>.
+   */
+  public void add(long key, long delta) {
+    if (key == 0) {
+      throw new IllegalArgumentException("The key 0 is not supported.");
+    }
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (keys[slot] != 0) {
+      if (keys[slot] == key) {
+        values[slot] += delta;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = delta;
+    size++;
+    if (size > threshold) {
+      resize();
+    }
+  }
+
+  /**
+   * @return <code>long[]</code> all keys in ascending order
+   */
+  public long[] getSortedKeys() {
+    long[] result = new long[size];
+    int i = 0;
+    for (long key : keys) {
+      if (key != 0) {
+        result[i++] = key;
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Removes all entries but keeps the capacity.
+   */
+  public void clear() {
+    Arrays.fill(keys, 0);
+    size = 0;
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new long[oldValues.length * 2];
+    threshold = (int) (keys.length * LOAD_FACTOR);
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    // finalizer of MurmurHash3
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdl;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53l;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+}
@@ -0,0 +1,77 @@
+package rw2018.statistics.utilities;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the memory mapping of a {@link MappedByteBuffer} immediately
+ * instead of waiting until the buffer is garbage collected. Afterwards, the
+ * mapped file can be truncated or deleted on all platforms. Java does not
+ * offer a public API for this. Therefore, the cleaner of the buffer is invoked
+ * reflectively, with <code>sun.misc.Unsafe.invokeCleaner</code> on Java 9 and
+ * later and with <code>sun.nio.ch.DirectBuffer.cleaner()</code> on Java 8.
+ *
+ * An unmapped buffer must not be accessed anymore, since this crashes the
+ * virtual machine.
+ *
+ */
+public class MappedBuffers {
+
+  private static final Unmapper UNMAPPER = createUnmapper();
+
+  /**
+   * Unmaps <code>buffer</code>.
+   *
+   * @param buffer
+   *          {@link MappedByteBuffer} that is not used anymore
+   * @return <code>boolean</code> <code>false</code> if the running Java
+   *         version does not allow to unmap the buffer, in which case the
+   *         mapping is released when the buffer is garbage collected
+   */
+  public static boolean unmap(MappedByteBuffer buffer) {
+    if (UNMAPPER == null) {
+      return false;
+    }
+    try {
+      UNMAPPER.unmap(buffer);
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static Unmapper createUnmapper() {
+    try {
+      // Java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> invokeCleaner.invoke(unsafe, buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8
+    }
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return buffer -> {
+        Object bufferCleaner = cleaner.invoke(buffer);
+        if (bufferCleaner != null) {
+          clean.invoke(bufferCleaner);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static interface Unmapper {
+
+    public void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+
+  }
+
+}
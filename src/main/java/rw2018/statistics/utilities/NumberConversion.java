@@ -18,6 +18,10 @@
  */
 package rw2018.statistics.utilities;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Converts primitive numerical values into a byte array and back again.
  * 
@@ -118,6 +122,67 @@ public class NumberConversion {
     }
   }
 
+  /**
+   * Writes the 7-bit blocks of <code>value</code> starting with the lowest
+   * block. The highest bit of a byte is set, if further blocks follow.
+   */
+  public static void writeVByte(DataOutput output, long value) throws IOException {
+    while ((value & ~0b0111_1111l) != 0) {
+      output.writeByte((int) ((value & 0b0111_1111) | 0b1000_0000));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+
+  public static long readVByte(DataInput input) throws IOException {
+    long result = 0;
+    int shift = 0;
+    byte currentBlock;
+    do {
+      currentBlock = input.readByte();
+      result |= (currentBlock & 0b0111_1111l) << shift;
+      shift += 7;
+    } while (currentBlock < 0);
+    return result;
+  }
+
+  /**
+   * Decodes a value that was encoded like in
+   * {@link #writeVByte(DataOutput, long)}.
+   */
+  public static long vbyte2long(byte[] bytes, int startIndex) {
+    long longValue = 0;
+    int shift = 0;
+    byte currentBlock;
+    do {
+      currentBlock = bytes[startIndex++];
+      longValue |= (currentBlock & 0b0111_1111l) << shift;
+      shift += 7;
+    } while (currentBlock < 0);
+    return longValue;
+  }
+
+  /**
+   * @return <code>int</code> the index after the last written byte
+   */
+  public static int long2vbyte(long value, byte[] destinationArray, int firstIndex) {
+    while ((value & ~0b0111_1111l) != 0) {
+      destinationArray[firstIndex++] = (byte) ((value & 0b0111_1111) | 0b1000_0000);
+      value >>>= 7;
+    }
+    destinationArray[firstIndex++] = (byte) value;
+    return firstIndex;
+  }
+
+  public static int getVByteLength(long value) {
+    int length = 1;
+    while ((value & ~0b0111_1111l) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
   public static String id2description(long id) {
     String result = id + "(computer=";
     result += (id >>> (Integer.SIZE + Short.SIZE));
@@ -0,0 +1,81 @@
+package rw2018.statistics.utilities;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe variant of {@link PagedLongArray}. Each page is an
+ * {@link AtomicLongArray} so that concurrent updates of values are lock-free.
+ * Only the allocation of a new page requires a lock.
+ * 
+ */
+public class PagedAtomicLongArray {
+
+  private static final int PAGE_BITS = 20;
+
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+  private volatile AtomicLongArray[] pages;
+
+  public PagedAtomicLongArray() {
+    pages = new AtomicLongArray[16];
+  }
+
+  public long get(long index) {
+    long pageIndex = index >>> PAGE_BITS;
+    AtomicLongArray[] pages = this.pages;
+    if (pageIndex >= pages.length) {
+      return 0;
+    }
+    AtomicLongArray page = pages[(int) pageIndex];
+    if (page == null) {
+      return 0;
+    }
+    return page.get((int) (index & PAGE_MASK));
+  }
+
+  public void set(long index, long value) {
+    getPage(index).set((int) (index & PAGE_MASK), value);
+  }
+
+  /**
+   * @param index
+   * @param delta
+   * @return <code>long</code> the value stored at <code>index</code> after
+   *         adding <code>delta</code>
+   */
+  public long add(long index, long delta) {
+    return getPage(index).addAndGet((int) (index & PAGE_MASK), delta);
+  }
+
+  private AtomicLongArray getPage(long index) {
+    long pageIndex = index >>> PAGE_BITS;
+    if (index < 0 || pageIndex >= Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("The index " + index + " is out of range.");
+    }
+    AtomicLongArray[] pages = this.pages;
+    if (pageIndex < pages.length) {
+      AtomicLongArray page = pages[(int) pageIndex];
+      if (page != null) {
+        return page;
+      }
+    }
+    synchronized (this) {
+      pages = this.pages;
+      if (pageIndex >= pages.length) {
+        long newLength = Math.max(pageIndex + 1, pages.length * 2l);
+        pages = Arrays.copyOf(pages, (int) Math.min(newLength, Integer.MAX_VALUE - 8));
+      }
+      AtomicLongArray page = pages[(int) pageIndex];
+      if (page == null) {
+        page = new AtomicLongArray(PAGE_SIZE);
+        pages[(int) pageIndex] = page;
+      }
+      this.pages = pages;
+      return page;
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+package rw2018.statistics.utilities;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive long values that is addressed by a
+ * <code>long</code> index. The values are stored in fixed size pages which are
+ * only allocated when a value on the page is written for the first time.
+ * Therefore, growing the array never requires copying already stored values.
+ * Values that have never been written are 0.
+ * 
+ */
+public class PagedLongArray {
+
+  private static final int PAGE_BITS = 20;
+
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+  private long[][] pages;
+
+  public PagedLongArray() {
+    pages = new long[16][];
+  }
+
+  public long get(long index) {
+    long pageIndex = index >>> PAGE_BITS;
+    if (pageIndex >= pages.length) {
+      return 0;
+    }
+    long[] page = pages[(int) pageIndex];
+    if (page == null) {
+      return 0;
+    }
+    return page[(int) (index & PAGE_MASK)];
+  }
+
+  public void set(long index, long value) {
+    getPage(index)[(int) (index & PAGE_MASK)] = value;
+  }
+
+  /**
+   * @param index
+   * @param delta
+   * @return <code>long</code> the value stored at <code>index</code> after
+   *         adding <code>delta</code>
+   */
+  public long add(long index, long delta) {
+    long[] page = getPage(index);
+    int indexInPage = (int) (index & PAGE_MASK);
+    page[indexInPage] += delta;
+    return page[indexInPage];
+  }
+
+  private long[] getPage(long index) {
+    long pageIndex = index >>> PAGE_BITS;
+    if (index < 0 || pageIndex >= Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("The index " + index + " is out of range.");
+    }
+    if (pageIndex >= pages.length) {
+      long newLength = Math.max(pageIndex + 1, pages.length * 2l);
+      pages = Arrays.copyOf(pages, (int) Math.min(newLength, Integer.MAX_VALUE - 8));
+    }
+    long[] page = pages[(int) pageIndex];
+    if (page == null) {
+      page = new long[PAGE_SIZE];
+      pages[(int) pageIndex] = page;
+    }
+    return page;
+  }
+
+}
@@ -0,0 +1,132 @@
+package rw2018.statistics.utilities;
+
+/**
+ * Collects the <code>k</code> ids with the largest frequencies from a stream
+ * of (id, frequency) pairs. The pairs are kept in a binary min-heap of
+ * primitive arrays whose root is the pair that is replaced first. Ties are
+ * broken in favour of the smaller id.
+ *
+ */
+public class TopKHeap {
+
+  private final long[] ids;
+
+  private final long[] frequencies;
+
+  private int size;
+
+  public TopKHeap(int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("k must be >= 0.");
+    }
+    ids = new long[k];
+    frequencies = new long[k];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return ids.length;
+  }
+
+  /**
+   * @return <code>long</code> the smallest frequency that is still contained
+   *         or -1 if the heap is not full
+   */
+  public long getMinimalFrequency() {
+    return size < ids.length ? -1 : frequencies[0];
+  }
+
+  public void offer(long id, long frequency) {
+    if (size < ids.length) {
+      ids[size] = id;
+      frequencies[size] = frequency;
+      siftUp(size++);
+    } else if ((size > 0) && isLess(frequencies[0], ids[0], frequency, id)) {
+      ids[0] = id;
+      frequencies[0] = frequency;
+      siftDown(0);
+    }
+  }
+
+  /**
+   * @return <code>long[]</code> the contained ids in descending order of their
+   *         frequencies
+   */
+  public long[] toSortedIds() {
+    long[] sortedIds = new long[size];
+    long[] sortedFrequencies = new long[size];
+    toSorted(sortedIds, sortedFrequencies);
+    return sortedIds;
+  }
+
+  /**
+   * Writes the contained ids and their frequencies in descending order of the
+   * frequencies into the given arrays, which must have at least
+   * {@link #size()} elements.
+   */
+  public void toSorted(long[] sortedIds, long[] sortedFrequencies) {
+    long[] heapIds = ids.clone();
+    long[] heapFrequencies = frequencies.clone();
+    int heapSize = size;
+    while (size > 0) {
+      size--;
+      sortedIds[size] = ids[0];
+      sortedFrequencies[size] = frequencies[0];
+      ids[0] = ids[size];
+      frequencies[0] = frequencies[size];
+      siftDown(0);
+    }
+    System.arraycopy(heapIds, 0, ids, 0, heapSize);
+    System.arraycopy(heapFrequencies, 0, frequencies, 0, heapSize);
+    size = heapSize;
+  }
+
+  /**
+   * @return <code>true</code> if the first pair ranks below the second pair
+   */
+  private static boolean isLess(long frequency1, long id1, long frequency2, long id2) {
+    return frequency1 < frequency2 || (frequency1 == frequency2 && id1 > id2);
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!isLess(frequencies[index], ids[index], frequencies[parent], ids[parent])) {
+        break;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    while (true) {
+      int child = (index << 1) + 1;
+      if (child >= size) {
+        break;
+      }
+      if ((child + 1 < size)
+              && isLess(frequencies[child + 1], ids[child + 1], frequencies[child], ids[child])) {
+        child++;
+      }
+      if (!isLess(frequencies[child], ids[child], frequencies[index], ids[index])) {
+        break;
+      }
+      swap(index, child);
+      index = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    long id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    long frequency = frequencies[i];
+    frequencies[i] = frequencies[j];
+    frequencies[j] = frequency;
+  }
+
+}